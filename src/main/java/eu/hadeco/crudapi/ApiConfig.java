@@ -24,6 +24,8 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.servlet.http.HttpServletRequest;
 
 /**
@@ -70,11 +72,19 @@ public class ApiConfig implements AutoCloseable {
     public static final String JCONNECT = "com.sybase.jdbc4.jdbc.SybDataSource";
 
     private static final int CACHE_TO = 1 * 60 * 1000; //1min
-    //contains table metadata map to gain some performance, refreshed every 30s
-    private static Map<String, TableMeta> cachedTableMeta = null;
-    private static long cacheTimestamp = 0;
+    private static final int COUNT_CACHE_TO = 10 * 1000; //10s
+    private static final int QUERY_TO = 0; //in seconds, no timeout
+    private static final int ADMISSION_TO = 5 * 1000; //5s
+    private static final int READ_YOUR_WRITES_TO = 5 * 1000; //5s
+    //contains table metadata snapshot of this data source to gain some performance, refreshed in background
+    private final SchemaCache schemaCache = new SchemaCache();
+    private final SqlTemplateCache sqlTemplateCache = new SqlTemplateCache();
+    private final ResultCountCache resultCountCache = new ResultCountCache();
+    private final ConcurrentMap<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+    private final ReplicaRouter replicas = new ReplicaRouter();
     private final HikariDataSource dataSource;
     private final Properties properties;
+    private volatile Dialect dialect;
 
     /**
      * Default constructor with Hikari properties
@@ -82,10 +92,27 @@ public class ApiConfig implements AutoCloseable {
      * @param hikariDatasourceProperties a {@link java.util.Properties} object.
      */
     public ApiConfig(Properties hikariDatasourceProperties) {
-        properties = hikariDatasourceProperties;
+        properties = copyOf(hikariDatasourceProperties);
+        getDialect().configure(properties);
         dataSource = new HikariDataSource(new HikariConfig(properties));
     }
 
+    /**
+     * Copies the properties (with their defaults), so the driver defaults
+     * added by the dialect don't change the caller's instance
+     *
+     * @param source Hikari properties
+     * @return copy of the properties
+     */
+    private static Properties copyOf(Properties source) {
+        final Properties copy = new Properties();
+        copy.putAll(source);
+        for (String name : source.stringPropertyNames()) {
+            copy.putIfAbsent(name, source.getProperty(name));
+        }
+        return copy;
+    }
+
     ApiConfig(HikariDataSource dataSource) {
         properties = null;
         this.dataSource = dataSource;
@@ -111,6 +138,7 @@ public class ApiConfig implements AutoCloseable {
         properties.put("dataSourceClassName", datasourceClassName);
         properties.put("dataSource.useUnicode", "true");
         properties.put("dataSource.characterEncoding", "utf8");
+        getDialect().configure(properties);
         dataSource = new HikariDataSource(new HikariConfig(properties));
     }
 
@@ -136,17 +164,11 @@ public class ApiConfig implements AutoCloseable {
         }
         properties.put("dataSource.databaseName", databaseName);
         if (MYSQL.equals(datasourceClassName)) {
-            //this is no longer supported in Mysql Connector Java 8, but utf8 is now default
-//            properties.put("dataSource.useUnicode", "true");
             //This removes warning messages by explicitly set SSL to false.
             //if you need SSL, set this to true and provide trust store as required by MySQL
             properties.put("dataSource.useSSL", "false");
-            properties.put("dataSource.characterEncoding", "utf8");
-        }
-        if (isPSQL()) {
-            //allows proper handling of timestamps like "2013-12-11 10:09:08"
-            properties.put("dataSource.stringType", "unspecified");
         }
+        getDialect().configure(properties);
         if (ORACLE.equals(datasourceClassName)) {
             properties.remove("dataSourceClassName");
             properties.setProperty("DriverClassName", "oracle.jdbc.OracleDriver");
@@ -174,38 +196,315 @@ public class ApiConfig implements AutoCloseable {
     }
 
     /**
-     * Returns cached tableMeta map but clears the references
+     * Returns cached schema metadata - this provides huge performance boost, as
+     * reading this data is expensive. Expired metadata is refreshed in background.
      *
-     * @return null if cache is expired or cleared
+     * @param link connection used if the metadata is not loaded yet
+     * @return current schema snapshot
+     * @throws java.sql.SQLException if metadata cannot be read
      */
-    public static Map<String, TableMeta> getCachedTableMeta() {
-        if (System.currentTimeMillis() > cacheTimestamp + CACHE_TO) {
-            cachedTableMeta = null;
-        } else {
-            for (TableMeta tableMeta : cachedTableMeta.values()) {
-                tableMeta.clearReferencedTables();
+    SchemaSnapshot getSchemaSnapshot(Connection link) throws SQLException {
+        return schemaCache.get(this, link);
+    }
+
+    /**
+     * Returns built SQL of the hot read queries, keyed by query shape.
+     *
+     * @return sql template cache of this configuration
+     */
+    SqlTemplateCache getSqlTemplateCache() {
+        return sqlTemplateCache;
+    }
+
+    ResultCountCache getResultCountCache() {
+        return resultCountCache;
+    }
+
+    /**
+     * Returns SQL dialect of the data source, selected on first use
+     *
+     * @return database dialect
+     */
+    Dialect getDialect() {
+        Dialect result = dialect;
+        if (result == null) {
+            result = Dialect.of(this);
+            dialect = result;
+        }
+        return result;
+    }
+
+    /**
+     * Selects how the "results" count of paged LIST requests (page=N,size) is
+     * obtained. Exact counts run a COUNT query before every page, which may
+     * double the latency on big tables.
+     *
+     * @param database database name
+     * @param table    requested table
+     * @return result count mode (default: EXACT)
+     */
+    public ResultCount getResultCountMode(String database, String table) {
+        return ResultCount.EXACT;
+    }
+
+    /**
+     * Time after which cached result counts expire. Writes through this API
+     * invalidate the counts of the written table immediately, other writers are
+     * seen after this time.
+     *
+     * @return time to live in milliseconds (default: 10 seconds)
+     */
+    public long getResultCountTimeToLive() {
+        return COUNT_CACHE_TO;
+    }
+
+    /**
+     * Maximum number of values in a single IN list, used to fetch included
+     * tables by collected keys. Larger key sets are split to several queries.
+     * The defaults respect Oracle's 1000 elements and MS SQL's 2100 parameters
+     * limits. PostgreSQL binds integer and text keys as single array instead.
+     * Results of included tables with requested order are merged by its
+     * columns, so merged text is ordered by Java rather than database collation.
+     *
+     * @return maximum IN list size
+     */
+    public int getMaxInListSize() {
+        return getDialect().getMaxInListSize();
+    }
+
+    /**
+     * Maximum number of sibling included tables fetched concurrently for a
+     * single request (non-transformed output). Besides the request connection,
+     * branches only use connections which are idle in the pool (or the replica
+     * of the request) at that moment, otherwise the tables are fetched
+     * sequentially. The output order doesn't change.
+     *
+     * @return concurrent branches per request, default is 1 (sequential)
+     */
+    public int getMaxParallelIncludes() {
+        return 1;
+    }
+
+    /**
+     * Query timeout of the statements of requests to the table, applied with
+     * Statement.setQueryTimeout(). It limits the execution of each statement,
+     * not fetching and writing of the results. Timed out requests receive 504,
+     * unless the response is already committed. Clients may shorten it with
+     * the X-Query-Timeout header (seconds).
+     *
+     * @param database database name
+     * @param table    requested table
+     * @return timeout in seconds, 0 for none (default)
+     */
+    public int getQueryTimeout(String database, String table) {
+        return QUERY_TO;
+    }
+
+    /**
+     * Maximum concurrent requests to the table with the action, checked before
+     * the request takes a pooled connection. Lower it for expensive tables, so
+     * they can't take the whole pool. Requests over the limit wait in a queue
+     * of {@link #getAdmissionQueueSize(String, Actions)} requests for up to
+     * {@link #getAdmissionTimeout()}, the others are rejected with 503 and
+     * Retry-After.
+     *
+     * @param table  requested table
+     * @param action requested action
+     * @return concurrency limit, 0 for none (default)
+     */
+    public int getConcurrencyLimit(String table, Actions action) {
+        return 0;
+    }
+
+    /**
+     * Maximum requests waiting for admission to the table with the action
+     *
+     * @param table  requested table
+     * @param action requested action
+     * @return queue size, default is twice the connection pool size
+     */
+    public int getAdmissionQueueSize(String table, Actions action) {
+        return 2 * dataSource.getMaximumPoolSize();
+    }
+
+    /**
+     * <p>getAdmissionTimeout.</p>
+     *
+     * @return maximum wait for admission in milliseconds, default is 5s
+     */
+    public long getAdmissionTimeout() {
+        return ADMISSION_TO;
+    }
+
+    /**
+     * Lowers concurrency limits while the requests get slower than usual or
+     * time out, and raises them back up to
+     * {@link #getConcurrencyLimit(String, Actions)} as the latency recovers.
+     *
+     * @return true for adaptive limits, default is false
+     */
+    public boolean isAdaptiveConcurrencyLimit() {
+        return false;
+    }
+
+    /**
+     * Returns bulkhead of the table and action. Bulkheads are created only for
+     * tables of the loaded schema, so their number is bounded. Until the schema
+     * is loaded, requests are admitted one at a time and the first one loads it
+     * with its own connection.
+     *
+     * @param table  requested table
+     * @param action requested action
+     * @return bulkhead or null without concurrency limit
+     * @throws ClassNotFoundException if the table doesn't exist
+     */
+    Bulkhead getBulkhead(String table, Actions action) throws ClassNotFoundException {
+        String key = table + ' ' + action;
+        Bulkhead bulkhead = bulkheads.get(key);
+        if (bulkhead == null) {
+            final int limit = getConcurrencyLimit(table, action);
+            if (limit <= 0) {
+                return null;
+            }
+            final SchemaSnapshot schema = schemaCache.peek();
+            if (schema == null) {
+                key = "";       //no table has an empty name
+                bulkhead = new Bulkhead(1, getAdmissionQueueSize(table, action), false);
+            } else if (!schema.getTables().containsKey(table)) {
+                throw new ClassNotFoundException("entity");
+            } else {
+                bulkhead = new Bulkhead(limit, getAdmissionQueueSize(table, action), isAdaptiveConcurrencyLimit());
+            }
+            final Bulkhead previous = bulkheads.putIfAbsent(key, bulkhead);
+            if (previous != null) {
+                bulkhead = previous;
             }
         }
-        return cachedTableMeta;
+        return bulkhead;
+    }
+
+    /**
+     * Runs requests of the Jetty handler (CrudApiHandler) with the Servlet async
+     * API, on a virtual thread per request with Java 21+ or on a pool of
+     * {@link #getMaxAsyncRequests()} platform threads otherwise. Jetty's threads
+     * are then not blocked by JDBC calls.
+     *
+     * @return true for async execution, default is false
+     */
+    public boolean isAsyncExecutionEnabled() {
+        return false;
+    }
+
+    /**
+     * Platform threads of async execution when virtual threads are not available.
+     * Requests waiting for admission ({@link #getConcurrencyLimit(String, Actions)})
+     * hold a thread, so with admission control keep it above the sum of the
+     * limits and admission queues, otherwise requests to one slow table can
+     * take all threads.
+     *
+     * @return thread pool size, default is the connection pool size
+     */
+    public int getMaxAsyncRequests() {
+        return dataSource.getMaximumPoolSize();
+    }
+
+    /**
+     * Requests waiting for a platform thread of async execution, the others are
+     * rejected with 503 and Retry-After. With virtual threads, at most
+     * {@link #getMaxAsyncRequests()} plus this many requests run at once.
+     *
+     * @return queue size, default is twice {@link #getMaxAsyncRequests()}
+     */
+    public int getAsyncQueueSize() {
+        return 2 * getMaxAsyncRequests();
+    }
+
+    /**
+     * Time limit of async requests, including the wait for a thread. Queued
+     * requests over it are rejected with 503, running ones have their
+     * statements cancelled and get 504 unless the response is committed. Keep
+     * it above the query timeouts ({@link #getQueryTimeout(String, String)}).
+     *
+     * @return timeout in milliseconds, default is 30s like in Jetty, 0 for no limit
+     */
+    public long getAsyncTimeout() {
+        return 30000;
+    }
+
+    /**
+     * Rows fetched from the database at once by LIST requests, so large results
+     * flow to the response with bounded memory. Paged requests (page, seek) are
+     * read with the driver defaults. PostgreSQL reads in a read-only transaction
+     * and Oracle prefetches this many rows. MySQL buffers whole results unless
+     * the <code>dataSource.useCursorFetch=true</code> property is set and this
+     * method returns a positive size, which reads through server-side cursors.
+     * Return 0 to use the driver defaults.
+     *
+     * @param database database name
+     * @param table    requested table
+     * @return fetch size, default depends on the database (0 for MySQL)
+     */
+    public int getFetchSize(String database, String table) {
+        return getDialect().getDefaultFetchSize();
+    }
+
+    /**
+     * Fetches included tables (transform mode) with a single LEFT JOIN query
+     * instead of one query per included table. This suits requests with few
+     * parent records and small child sets. Request parameter join=1 or join=0
+     * overrides this setting. Requests which cannot be joined (paging, tenancy,
+     * unrelated tables or tables without primary key) always use separate queries.
+     *
+     * @param database database name
+     * @param table    requested table
+     * @return true to join included tables (default: false)
+     */
+    public boolean isIncludeJoinEnabled(String database, String table) {
+        return false;
+    }
+
+    /**
+     * Rows of multi-row POST/PUT requests which produce the same SQL are sent to
+     * the database as JDBC batch. Updates and deletes are batched only with
+     * drivers which report the update count of each row (not with Oracle).
+     *
+     * @return true if batching is enabled (default)
+     */
+    public boolean isBatchUpdateEnabled() {
+        return true;
+    }
+
+    /**
+     * Rows per INSERT statement for multi-row POST requests. Values greater than
+     * 1 enable the multi-row mode, where rows are sent as
+     * <code>INSERT INTO t (cols) VALUES (...),(...),...</code> (MySQL, PostgreSQL
+     * and SQLite only). The statement size is further limited by the bind
+     * parameter cap of the driver.
+     *
+     * @return rows per statement, default is 0 (disabled)
+     */
+    public int getMultiRowInsertSize() {
+        return 0;
     }
 
     /**
-     * Caches tableMeta map - this provides huge performance boost, as reading
-     * this data is expensive
+     * Time after which cached schema metadata is refreshed in background.
+     * Override to tune it for your database (default: 1 minute)
      *
-     * @param cachedTableMeta a {@link java.util.Map} object.
+     * @return time to live in milliseconds
      */
-    public static void setCachedTableMeta(Map<String, TableMeta> cachedTableMeta) {
-        ApiConfig.cachedTableMeta = cachedTableMeta;
-        cacheTimestamp = System.currentTimeMillis();
+    public long getSchemaCacheTimeToLive() {
+        return CACHE_TO;
     }
 
     /**
-     * Resets the tableMeta cache.
+     * Resets the schema metadata cache of this configuration, e.g. after DDL
+     * changes. Next request reloads the metadata.
      */
-    public static void clearCachedTableMeta() {
-        cachedTableMeta = null;
-        cacheTimestamp = 0;
+    public void invalidateSchemaCache() {
+        schemaCache.invalidate();
+        sqlTemplateCache.clear();
+        resultCountCache.clear();
     }
 
     /**
@@ -218,6 +517,44 @@ public class ApiConfig implements AutoCloseable {
         return dataSource.getConnection();
     }
 
+    /**
+     * Adds read replica of the database. Read-only actions
+     * ({@link Actions#isReadOnly()}: LIST, READ and HEADERS of OPTIONS
+     * requests) are balanced over healthy replicas, except for clients which
+     * have written within {@link #getReadYourWritesWindow()}. Set a short
+     * connectionTimeout, failing replicas are ejected only after it.
+     *
+     * @param hikariDatasourceProperties Hikari properties of the replica
+     */
+    public void addReplica(Properties hikariDatasourceProperties) {
+        replicas.add(new HikariDataSource(new HikariConfig(hikariDatasourceProperties)));
+    }
+
+    boolean hasReplicas() {
+        return !replicas.isEmpty();
+    }
+
+    ReplicaRouter getReplicaRouter() {
+        return replicas;
+    }
+
+    HikariDataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * Reads of a client go to the primary for this time after its successful
+     * write (set by a response cookie), so the client sees its changes despite
+     * the replication lag. The replicas are not checked for lag: the window
+     * must exceed their worst replication lag, otherwise clients may read stale
+     * data after it.
+     *
+     * @return window in milliseconds, default is 5s
+     */
+    public long getReadYourWritesWindow() {
+        return READ_YOUR_WRITES_TO;
+    }
+
     /**
      * <p>tableAuthorizer.</p>
      *
@@ -341,6 +678,15 @@ public class ApiConfig implements AutoCloseable {
         return ORACLE.equals(properties.get("dataSourceClassName")) || properties.getProperty("jdbcUrl", "").startsWith("jdbc:oracle");
     }
 
+    /**
+     * <p>isMySQL.</p>
+     *
+     * @return a boolean.
+     */
+    public final boolean isMySQL() {
+        return MYSQL.equals(properties.get("dataSourceClassName"));
+    }
+
     /**
      * <p>isPSQL.</p>
      *
@@ -356,7 +702,7 @@ public class ApiConfig implements AutoCloseable {
      * @return a boolean.
      */
     public final boolean isXERIAL() {
-        return XERIAL.equals(properties.get("dataSourceClassName"));
+        return XERIAL.equals(properties.get("dataSourceClassName")) || properties.getProperty("jdbcUrl", "").startsWith("jdbc:sqlite");
     }
 
     /** {@inheritDoc} */
@@ -368,6 +714,24 @@ public class ApiConfig implements AutoCloseable {
     /** {@inheritDoc} */
     @Override
     public final void close() {
+        schemaCache.invalidate();
+        sqlTemplateCache.clear();
+        resultCountCache.clear();
+        replicas.close();
         dataSource.close();
     }
+
+    /**
+     * Result count modes of paged LIST requests
+     */
+    public enum ResultCount {
+        /** COUNT query for every page (default) */
+        EXACT,
+        /** COUNT query result cached per table and filters, see {@link #getResultCountTimeToLive()} */
+        CACHED,
+        /** row estimate from the database catalog for unfiltered tables, cached count otherwise */
+        ESTIMATED,
+        /** no count, the "results" property is omitted */
+        NONE
+    }
 }
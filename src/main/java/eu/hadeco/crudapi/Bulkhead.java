@@ -0,0 +1,119 @@
+/*
+ *  Copyright (c) 2017. I.Kolchagov, All rights reserved.
+ *  Contact: I.Kolchagov (kolchagov (at) gmail.com)
+ *
+ *  The contents of this file is licensed under the terms of LGPLv3 license.
+ *  You may read the the included file 'lgpl-3.0.txt'
+ *  or https://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the License.
+ *
+ *  The project uses 'fluentsql' internally, licensed under Apache Public License v2.0.
+ *  https://github.com/ivanceras/fluentsql/blob/master/LICENSE.txt
+ *
+ */
+
+package eu.hadeco.crudapi;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrency limit of requests to one table with one action. Requests over
+ * the limit wait in a bounded queue, the rest is rejected at once.
+ * <p>
+ * The adaptive limit follows AIMD: it grows by one per limit of requests and
+ * shrinks by 10% (at most once per request latency) when a request is slow or
+ * overloaded. Slow means twice the baseline latency, which is the lowest
+ * observed latency, slowly drifting up to follow changes of the workload.
+ *
+ * @author ivankol
+ * @version $Id: $Id
+ */
+class Bulkhead {
+    //latencies below are never slow
+    private static final long MIN_SLOW_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final double BACKOFF = 0.9;
+    private final int maxLimit;
+    private final int queueSize;
+    private final boolean isAdaptive;
+    private double limit;
+    private int inFlight;
+    private int waiting;
+    private double baseline;
+    private long lastDecrease;
+
+    /**
+     * <p>Constructor for Bulkhead.</p>
+     *
+     * @param maxLimit   maximum concurrent requests
+     * @param queueSize  maximum waiting requests
+     * @param isAdaptive adapts the limit to the observed latency
+     */
+    Bulkhead(int maxLimit, int queueSize, boolean isAdaptive) {
+        this.maxLimit = maxLimit;
+        this.queueSize = queueSize;
+        this.isAdaptive = isAdaptive;
+        this.limit = maxLimit;
+    }
+
+    /**
+     * Admits the request, waiting for a free slot if the queue isn't full
+     *
+     * @param timeout maximum wait in milliseconds
+     * @return true if admitted, callers must {@link #release(long, boolean)} then
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized boolean acquire(long timeout) throws InterruptedException {
+        if (inFlight < (int) limit) {
+            inFlight++;
+            return true;
+        }
+        if (waiting >= queueSize) {
+            return false;
+        }
+        waiting++;
+        try {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (inFlight >= (int) limit) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            inFlight++;
+            return true;
+        } finally {
+            waiting--;
+        }
+    }
+
+    /**
+     * Releases admitted request and adapts the limit
+     *
+     * @param latency      request duration in nanoseconds
+     * @param isOverloaded true if the request failed because of overload (timeout)
+     */
+    synchronized void release(long latency, boolean isOverloaded) {
+        inFlight--;
+        if (isAdaptive) {
+            if (baseline == 0 || latency < baseline) {
+                baseline = latency;
+            } else {
+                baseline += (latency - baseline) / 100;
+            }
+            final long now = System.nanoTime();
+            if (isOverloaded || latency > Math.max(2 * baseline, MIN_SLOW_NANOS)) {
+                if (now - lastDecrease > latency) {
+                    limit = Math.max(1, limit * BACKOFF);
+                    lastDecrease = now;
+                }
+            } else if (limit < maxLimit) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+        }
+        notifyAll();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *  Copyright (c) 2017. I.Kolchagov, All rights reserved.
+ *  Contact: I.Kolchagov (kolchagov (at) gmail.com)
+ *
+ *  The contents of this file is licensed under the terms of LGPLv3 license.
+ *  You may read the the included file 'lgpl-3.0.txt'
+ *  or https://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the License.
+ *
+ *  The project uses 'fluentsql' internally, licensed under Apache Public License v2.0.
+ *  https://github.com/ivanceras/fluentsql/blob/master/LICENSE.txt
+ *
+ */
+package eu.hadeco.crudapi;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Statements of a single request, which can be cancelled from another thread:
+ * when the client has gone away or when the request has run out of time
+ * ({@link ApiConfig#getAsyncTimeout()}). Cancelled requests stop at their next
+ * row, statements registered after the cancellation are cancelled at once.
+ *
+ * @author ivankol
+ * @version $Id: $Id
+ */
+class Cancellation {
+    private static final Logger LOGR = Logger.getLogger(Cancellation.class.getName());
+    private final Set<Statement> statements = Collections.newSetFromMap(new ConcurrentHashMap<Statement, Boolean>());
+    private volatile boolean isCancelled;
+    private volatile boolean isExpired;
+
+    /**
+     * Adds a statement of the request
+     *
+     * @param statement prepared statement
+     */
+    void register(Statement statement) {
+        statements.add(statement);
+        if (isCancelled) {
+            cancel(statement);
+        }
+    }
+
+    /**
+     * Cancels running statements of the request, so the database stops the
+     * queries instead of finishing them for nobody.
+     */
+    void cancel() {
+        isCancelled = true;
+        for (Statement statement : statements) {
+            cancel(statement);
+        }
+    }
+
+    /**
+     * Cancels the request, which has run out of time
+     */
+    void expire() {
+        isExpired = true;
+        cancel();
+    }
+
+    boolean isCancelled() {
+        return isCancelled;
+    }
+
+    /**
+     * @return true if the request has run out of time
+     */
+    boolean isExpired() {
+        return isExpired;
+    }
+
+    private static void cancel(Statement statement) {
+        try {
+            if (!statement.isClosed()) {
+                statement.cancel();
+            }
+        } catch (SQLException e) {
+            LOGR.log(Level.FINE, "Cannot cancel statement", e);
+        }
+    }
+}
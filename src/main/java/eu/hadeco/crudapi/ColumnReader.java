@@ -0,0 +1,414 @@
+/*
+ *  Copyright (c) 2017. I.Kolchagov, All rights reserved.
+ *  Contact: I.Kolchagov (kolchagov (at) gmail.com)
+ *
+ *  The contents of this file is licensed under the terms of LGPLv3 license.
+ *  You may read the the included file 'lgpl-3.0.txt'
+ *  or https://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the License.
+ *
+ *  The project uses 'fluentsql' internally, licensed under Apache Public License v2.0.
+ *  https://github.com/ivanceras/fluentsql/blob/master/LICENSE.txt
+ *
+ */
+
+package eu.hadeco.crudapi;
+
+import android.util.Base64;
+import com.google.gson.*;
+import com.google.gson.stream.JsonWriter;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Reads the values of a single result set column. Readers are created once per
+ * query for the column type and index, so reading a cell is an indexed getter
+ * and writing it is a direct JSON write.
+ *
+ * @author ivankol
+ * @version $Id: $Id
+ */
+abstract class ColumnReader {
+    /** Normalized type of binary columns */
+    static final String BINARY = "_binary_";
+    /** Normalized type of date and time columns */
+    static final String TIME = "_time_";
+
+    final int index;
+
+    ColumnReader(int index) {
+        this.index = index;
+    }
+
+    /**
+     * Creates reader for normalized (upper-cased) column type
+     *
+     * @param type  column type, null for columns without type (foreign column or system object)
+     * @param index column index in the result set
+     * @param gson  used to parse JSON columns
+     * @return column reader
+     * @throws SQLException if the type is not supported
+     */
+    static ColumnReader create(String type, int index, Gson gson) throws SQLException {
+        if (type == null) {
+            return new NullReader();
+        }
+        switch (type) {
+            case "GEOMETRY":         //this type is included in tests as ST_AsText(value)
+                return new GeometryReader(index);
+            case "MDSYS.SDO_GEOMETRY":
+                //todo implement Oracle spatial object conversion to text
+                //NOTE: not possible for Oracle XE - https://stackoverflow.com/questions/44832223/oracle-converting-sdo-geometry-to-wkt
+            case "CHARACTER":
+            case "TEXT":
+            case "MEDIUMTEXT":
+            case "VARCHAR":
+            case "VARCHAR2":
+            case "NVARCHAR":
+            case "LONGVARCHAR":
+            case "DECIMAL":         //this type is included as string in tests
+                return new StringReader(index);
+            case "NUMBER":          //Oracle's mixed type
+            case "NUMERIC":         //this type is included as string in tests
+                return new NumericReader(index);
+            case "JSON":
+            case "CLOB":
+                return new JsonValueReader(index, gson);
+            case "XML":
+                return new XmlReader(index, gson);
+            case "BIT":
+                return new BooleanReader(index);
+            case "TINYINT":
+            case "SMALLINT":
+            case "INTEGER":
+            case "INT":
+            case "INT4":
+            case "INT2":
+            case "SERIAL":
+                return new IntReader(index);
+            case "BIGINT":
+            case "INT8":
+                return new LongReader(index);
+            case "REAL":
+                return new RealReader(index);
+            case "FLOAT":
+            case "DOUBLE":
+            case "DOUBLE PRECISION":
+                return new DoubleReader(index);
+            case BINARY:
+                return new BinaryReader(index);
+            case TIME:
+                return new TimeReader(index);
+            default:
+                throw new SQLException("Type not implemented: " + type);
+        }
+    }
+
+    /**
+     * Reads value of the current row
+     *
+     * @param rs result set
+     * @return column value
+     * @throws SQLException on database error
+     */
+    abstract Object read(ResultSet rs) throws SQLException;
+
+    /**
+     * Writes value of the current row. Scalar types override this to avoid boxing.
+     *
+     * @param rs   result set
+     * @param out  JSON output
+     * @param gson serializer of non-scalar values
+     * @throws SQLException on database error
+     * @throws IOException  on output error
+     */
+    void write(ResultSet rs, JsonWriter out, Gson gson) throws SQLException, IOException {
+        final Object value = read(rs);
+        if (value == null) {
+            out.nullValue();
+        } else {
+            gson.toJson(value, value.getClass(), out);
+        }
+    }
+
+    private static JsonElement parseXmlObject(Node node) {
+        JsonElement result = JsonNull.INSTANCE;
+        Node type = node.getAttributes().getNamedItem("type");
+        final NodeList childNodes = node.getChildNodes();
+        switch (type.getNodeValue()) {
+            case "object":
+                final JsonObject jsonObject = new JsonObject();
+                for (int i = 0; i < childNodes.getLength(); i++) {
+                    final Node item = childNodes.item(i);
+                    final JsonElement jsonElement = parseXmlObject(item);
+                    jsonObject.add(item.getNodeName(), jsonElement);
+                }
+                result = jsonObject;
+                break;
+            case "array":
+                final JsonArray jsonElements = new JsonArray();
+                for (int i = 0; i < childNodes.getLength(); i++) {
+                    final Node item = childNodes.item(i);
+                    final JsonElement jsonElement = parseXmlObject(item);
+                    jsonElements.add(jsonElement);
+                }
+                result = jsonElements;
+                break;
+            case "boolean":
+                result = new JsonPrimitive("true".equalsIgnoreCase(node.getTextContent()));
+                break;
+            case "number":
+                String nodeValue = node.getTextContent();
+                if (nodeValue != null) {
+                    final Double aDouble = Double.valueOf(nodeValue);
+                    result = aDouble == aDouble.longValue()
+                            ? new JsonPrimitive(aDouble.longValue()) : new JsonPrimitive(aDouble);
+                }
+                break;
+            case "string":
+                nodeValue = node.getTextContent();
+                if (nodeValue != null) {
+                    result = new JsonPrimitive(nodeValue);
+                }
+                break;
+            case "null":
+                break;
+            default:
+                throw new UnsupportedOperationException("Type not implemented: " + type);
+        }
+        return result;
+    }
+
+    private static final class NullReader extends ColumnReader {
+        NullReader() {
+            super(0);
+        }
+
+        @Override
+        Object read(ResultSet rs) {
+            return null;
+        }
+
+        @Override
+        void write(ResultSet rs, JsonWriter out, Gson gson) throws IOException {
+            out.nullValue();
+        }
+    }
+
+    private static final class StringReader extends ColumnReader {
+        StringReader(int index) {
+            super(index);
+        }
+
+        @Override
+        Object read(ResultSet rs) throws SQLException {
+            return rs.getString(index);
+        }
+
+        @Override
+        void write(ResultSet rs, JsonWriter out, Gson gson) throws SQLException, IOException {
+            out.value(rs.getString(index));
+        }
+    }
+
+    private static final class GeometryReader extends ColumnReader {
+        GeometryReader(int index) {
+            super(index);
+        }
+
+        @Override
+        Object read(ResultSet rs) throws SQLException {
+            final String value = rs.getString(index);
+            return value != null ? value.replace("POINT ", "POINT") : null; //fix MsSQL representation
+        }
+    }
+
+    private static final class NumericReader extends ColumnReader {
+        NumericReader(int index) {
+            super(index);
+        }
+
+        @Override
+        Object read(ResultSet rs) throws SQLException {
+            final String value = rs.getString(index);
+            //special case: some integer values defined in tests
+            if (value != null && value.indexOf('.') < 0) {
+                return rs.getLong(index);
+            }
+            return value;
+        }
+
+        @Override
+        void write(ResultSet rs, JsonWriter out, Gson gson) throws SQLException, IOException {
+            final String value = rs.getString(index);
+            if (value != null && value.indexOf('.') < 0) {
+                out.value(rs.getLong(index));
+            } else {
+                out.value(value);
+            }
+        }
+    }
+
+    private static final class JsonValueReader extends ColumnReader {
+        private final Gson gson;
+
+        JsonValueReader(int index, Gson gson) {
+            super(index);
+            this.gson = gson;
+        }
+
+        @Override
+        Object read(ResultSet rs) throws SQLException {
+            final String value = rs.getString(index);
+            try {
+                return gson.fromJson(value, JsonElement.class);
+            } catch (JsonParseException ignored) {
+                return value;       //non-JSON content returned as String
+            }
+        }
+    }
+
+    private static final class XmlReader extends ColumnReader {
+        private final Gson gson;
+
+        XmlReader(int index, Gson gson) {
+            super(index);
+            this.gson = gson;
+        }
+
+        @Override
+        Object read(ResultSet rs) throws SQLException {
+            final String xmlContents = rs.getNString(index);
+            try {
+                Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xmlContents.getBytes()));
+                return parseXmlObject(doc.getDocumentElement());
+            } catch (SAXException | IOException | ParserConfigurationException e) {
+                return gson.fromJson(xmlContents, JsonElement.class);
+            }
+        }
+    }
+
+    private static final class BooleanReader extends ColumnReader {
+        BooleanReader(int index) {
+            super(index);
+        }
+
+        @Override
+        Object read(ResultSet rs) throws SQLException {
+            return rs.getBoolean(index);
+        }
+
+        @Override
+        void write(ResultSet rs, JsonWriter out, Gson gson) throws SQLException, IOException {
+            out.value(rs.getBoolean(index));
+        }
+    }
+
+    private static final class IntReader extends ColumnReader {
+        IntReader(int index) {
+            super(index);
+        }
+
+        @Override
+        Object read(ResultSet rs) throws SQLException {
+            return rs.getInt(index);
+        }
+
+        @Override
+        void write(ResultSet rs, JsonWriter out, Gson gson) throws SQLException, IOException {
+            out.value(rs.getInt(index));
+        }
+    }
+
+    private static final class LongReader extends ColumnReader {
+        LongReader(int index) {
+            super(index);
+        }
+
+        @Override
+        Object read(ResultSet rs) throws SQLException {
+            return rs.getLong(index);
+        }
+
+        @Override
+        void write(ResultSet rs, JsonWriter out, Gson gson) throws SQLException, IOException {
+            out.value(rs.getLong(index));
+        }
+    }
+
+    private static final class RealReader extends ColumnReader {
+        RealReader(int index) {
+            super(index);
+        }
+
+        @Override
+        Object read(ResultSet rs) throws SQLException {
+            if (rs.getString(index).contains(".")) {
+                return rs.getFloat(index);
+            }
+            return rs.getInt(index);
+        }
+    }
+
+    private static final class DoubleReader extends ColumnReader {
+        DoubleReader(int index) {
+            super(index);
+        }
+
+        @Override
+        Object read(ResultSet rs) throws SQLException {
+            return rs.getDouble(index);
+        }
+
+        @Override
+        void write(ResultSet rs, JsonWriter out, Gson gson) throws SQLException, IOException {
+            final double value = rs.getDouble(index);
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                super.write(rs, out, gson);
+            } else if (value == (long) value) {
+                out.value((long) value);    //same as Gson's numeric format fix
+            } else {
+                out.value(value);
+            }
+        }
+    }
+
+    private static final class BinaryReader extends ColumnReader {
+        BinaryReader(int index) {
+            super(index);
+        }
+
+        @Override
+        Object read(ResultSet rs) throws SQLException {
+            final byte[] bytes = rs.getBytes(index);
+            return bytes != null ? Base64.encodeToString(bytes, Base64.DEFAULT).trim() : null;
+        }
+    }
+
+    private static final class TimeReader extends ColumnReader {
+        TimeReader(int index) {
+            super(index);
+        }
+
+        @Override
+        Object read(ResultSet rs) throws SQLException {
+            final String ts = rs.getString(index);
+            if (ts != null && ts.length() > 19) {
+                return ts.substring(0, 19);      //treat all date types as String
+            }
+            return ts;
+        }
+    }
+}
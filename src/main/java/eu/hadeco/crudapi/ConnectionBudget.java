@@ -0,0 +1,106 @@
+/*
+ *  Copyright (c) 2017. I.Kolchagov, All rights reserved.
+ *  Contact: I.Kolchagov (kolchagov (at) gmail.com)
+ *
+ *  The contents of this file is licensed under the terms of LGPLv3 license.
+ *  You may read the the included file 'lgpl-3.0.txt'
+ *  or https://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the License.
+ *
+ *  The project uses 'fluentsql' internally, licensed under Apache Public License v2.0.
+ *  https://github.com/ivanceras/fluentsql/blob/master/LICENSE.txt
+ *
+ */
+
+package eu.hadeco.crudapi;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Connections of a single request. Read-only requests pick one replica and
+ * take all their connections from it, so the response doesn't mix replicas
+ * with different lag. Additional connections (parallel includes) are taken only
+ * while the pool has idle ones, so requests don't queue for a second connection
+ * while holding the first one, which would deadlock a busy pool.
+ *
+ * @author ivankol
+ * @version $Id: $Id
+ */
+class ConnectionBudget {
+    private static final Logger LOGR = Logger.getLogger(ConnectionBudget.class.getName());
+    private final ApiConfig config;
+    private final boolean isReplicaRead;
+    //replica of the request, null for the primary
+    private HikariDataSource replica;
+
+    /**
+     * <p>Constructor for ConnectionBudget.</p>
+     *
+     * @param config        api configuration
+     * @param isReplicaRead reads from a replica, if there's a healthy one
+     */
+    ConnectionBudget(ApiConfig config, boolean isReplicaRead) {
+        this.config = config;
+        this.isReplicaRead = isReplicaRead;
+    }
+
+    /**
+     * Opens the request connection and picks the replica for the next ones
+     *
+     * @return connection
+     * @throws SQLException if the connection cannot be established
+     */
+    Connection open() throws SQLException {
+        if (isReplicaRead) {
+            final ReplicaRouter router = config.getReplicaRouter();
+            HikariDataSource candidate;
+            while ((candidate = router.select()) != null) {
+                try {
+                    final Connection connection = candidate.getConnection();
+                    replica = candidate;
+                    return connection;
+                } catch (SQLException e) {
+                    router.eject(candidate, e);
+                }
+            }
+        }
+        return config.getConnection();
+    }
+
+    /**
+     * Opens additional connections from the data source of the request, as
+     * long as its pool has idle connections
+     *
+     * @param maxCount maximum number of connections
+     * @return opened connections, callers must close them
+     */
+    List<Connection> openIdle(int maxCount) {
+        final List<Connection> result = new ArrayList<>();
+        final HikariDataSource source = replica != null ? replica : config.getDataSource();
+        while (result.size() < maxCount && getIdleConnections(source) > 0) {
+            try {
+                result.add(replica != null ? replica.getConnection() : config.getConnection());
+            } catch (SQLException e) {
+                LOGR.log(Level.FINE, "Cannot open additional connection", e);
+                break;
+            }
+        }
+        return result;
+    }
+
+    private static int getIdleConnections(HikariDataSource source) {
+        final HikariPoolMXBean pool = source.getHikariPoolMXBean();
+        return pool == null ? 0 : pool.getIdleConnections();
+    }
+}
@@ -20,18 +20,40 @@ package eu.hadeco.crudapi;
 import org.eclipse.jetty.server.*;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
 import static eu.hadeco.crudapi.ApiConfig.XERIAL;
 
 class CrudApiHandler extends AbstractHandler {
+    private static final Logger LOGR = Logger.getLogger(CrudApiHandler.class.getName());
+    //states of an async request
+    private static final int QUEUED = 0, RUNNING = 1, FINISHED = 2;
+    //enforces ApiConfig.getAsyncTimeout()
+    private static final ScheduledExecutorService DEADLINES = Executors.newSingleThreadScheduledExecutor(
+            newDaemonThreadFactory("crud-api-deadline"));
     static final Pattern TAG_FILTER = Pattern.compile("(<script>|</script>)");
     private final ApiConfig apiConfig;
+    //runs requests outside Jetty's thread pool, null for synchronous execution
+    private final Executor requestExecutor;
 
     private CrudApiHandler() throws IOException {
         //this is configuration example from tests!
@@ -75,6 +97,76 @@ class CrudApiHandler extends AbstractHandler {
                 return action;
             }
         };
+        requestExecutor = apiConfig.isAsyncExecutionEnabled()
+                ? newRequestExecutor(apiConfig.getMaxAsyncRequests(), apiConfig.getAsyncQueueSize()) : null;
+    }
+
+    /**
+     * Creates executor of async requests: virtual thread per request on Java 21+,
+     * otherwise a fixed pool of platform threads with a bounded queue. Both
+     * reject requests over the thread and queue sizes.
+     *
+     * @param platformThreads pool size without virtual threads
+     * @param queueSize       requests waiting for a platform thread
+     * @return request executor
+     */
+    static Executor newRequestExecutor(int platformThreads, int queueSize) {
+        try {
+            //looked up at runtime, the sources still target Java 8
+            final Executor virtualThreads = (Executor) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            return newBoundedExecutor(virtualThreads, Math.max(1, platformThreads) + Math.max(1, queueSize));
+        } catch (ReflectiveOperationException e) {
+            LOGR.log(Level.INFO, "Virtual threads are not available, using {0} request threads", platformThreads);
+        }
+        return new ThreadPoolExecutor(platformThreads, platformThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), newDaemonThreadFactory("crud-api-request"));
+    }
+
+    /**
+     * Limits the requests running on the executor, the ones over the limit are
+     * rejected
+     *
+     * @param executor    unbounded executor
+     * @param maxRequests concurrent requests
+     * @return bounded executor
+     */
+    private static Executor newBoundedExecutor(final Executor executor, int maxRequests) {
+        final Semaphore permits = new Semaphore(maxRequests);
+        return new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                if (!permits.tryAcquire()) {
+                    throw new RejectedExecutionException("Too many requests");
+                }
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                command.run();
+                            } finally {
+                                permits.release();
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                    throw e;
+                }
+            }
+        };
+    }
+
+    private static ThreadFactory newDaemonThreadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
     }
 
     /**
@@ -103,8 +195,85 @@ class CrudApiHandler extends AbstractHandler {
     @Override
     public void handle(String target, Request baseReq, HttpServletRequest req, HttpServletResponse resp)
             throws IOException, ServletException {
-        RequestHandler.handle(req, resp, apiConfig);
         baseReq.setHandled(true);
+        if (requestExecutor == null) {
+            RequestHandler.handle(req, resp, apiConfig);
+            return;
+        }
+        final AsyncContext async = req.startAsync();
+        //the container would complete the response under a running request, our deadline cancels it instead
+        async.setTimeout(0);
+        final AtomicInteger state = new AtomicInteger(QUEUED);
+        final Cancellation cancellation = new Cancellation();
+        final ScheduledFuture<?> deadline = scheduleDeadline(async, state, cancellation);
+        try {
+            requestExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!state.compareAndSet(QUEUED, RUNNING)) {
+                        return;
+                    }
+                    try {
+                        RequestHandler.handle((HttpServletRequest) async.getRequest(),
+                                (HttpServletResponse) async.getResponse(), apiConfig, cancellation);
+                    } catch (IOException | RuntimeException e) {
+                        LOGR.log(Level.WARNING, e.getMessage(), e);
+                    } finally {
+                        state.set(FINISHED);
+                        if (deadline != null) {
+                            deadline.cancel(false);
+                        }
+                        async.complete();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            state.set(FINISHED);
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+            try {
+                RequestHandler.sendServiceUnavailable(resp, "Too many requests, try again later");
+            } finally {
+                async.complete();
+            }
+        }
+    }
+
+    /**
+     * Rejects the request with 503 if it still waits for a thread at the
+     * deadline, otherwise cancels its statements
+     *
+     * @param async        async context of the request
+     * @param state        QUEUED, RUNNING or FINISHED
+     * @param cancellation cancels the statements of the request
+     * @return the deadline, null without {@link ApiConfig#getAsyncTimeout()}
+     */
+    private ScheduledFuture<?> scheduleDeadline(final AsyncContext async, final AtomicInteger state,
+                                                final Cancellation cancellation) {
+        final long asyncTimeout = apiConfig.getAsyncTimeout();
+        if (asyncTimeout <= 0) {
+            return null;
+        }
+        return DEADLINES.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (state.compareAndSet(QUEUED, FINISHED)) {
+                    try {
+                        RequestHandler.sendServiceUnavailable((HttpServletResponse) async.getResponse(),
+                                "Request timeout, try again later");
+                    } catch (IOException | RuntimeException e) {
+                        LOGR.log(Level.FINE, e.getMessage(), e);
+                    } finally {
+                        async.complete();
+                    }
+                } else if (state.get() == RUNNING) {
+                    //the worker answers 504 and completes the response
+                    LOGR.log(Level.WARNING, "Async request timed out after {0} ms", asyncTimeout);
+                    cancellation.expire();
+                }
+            }
+        }, asyncTimeout, TimeUnit.MILLISECONDS);
     }
 
 }
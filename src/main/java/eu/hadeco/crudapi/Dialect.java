@@ -0,0 +1,574 @@
+/*
+ *  Copyright (c) 2017. I.Kolchagov, All rights reserved.
+ *  Contact: I.Kolchagov (kolchagov (at) gmail.com)
+ *
+ *  The contents of this file is licensed under the terms of LGPLv3 license.
+ *  You may read the the included file 'lgpl-3.0.txt'
+ *  or https://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the License.
+ *
+ *  The project uses 'fluentsql' internally, licensed under Apache Public License v2.0.
+ *  https://github.com/ivanceras/fluentsql/blob/master/LICENSE.txt
+ *
+ */
+package eu.hadeco.crudapi;
+
+import com.google.gson.Gson;
+import com.ivanceras.fluent.sql.SQL;
+import net.sf.json.JSON;
+import net.sf.json.JSONSerializer;
+import net.sf.json.xml.XMLSerializer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLXML;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Properties;
+
+import static com.ivanceras.fluent.sql.SQL.Statics.SELECT;
+
+/**
+ * SQL and JDBC differences of the supported databases. A dialect is selected
+ * once per {@link ApiConfig} and owns paging, key return, bulk, array and JSON
+ * binding, geometry and metadata strategies, so each backend can use its
+ * fastest path without if-chains in the request handler. This class holds the
+ * defaults (LIMIT/OFFSET paging, ST_* geometry functions).
+ *
+ * @author ivankol
+ * @version $Id: $Id
+ */
+abstract class Dialect {
+
+    /**
+     * Selects dialect of the configured data source
+     *
+     * @param config api configuration
+     * @return dialect of the database
+     */
+    static Dialect of(ApiConfig config) {
+        if (config.isMsSQL()) {
+            return new SqlServer();
+        } else if (config.isOracle()) {
+            return new Oracle();
+        } else if (config.isMySQL()) {
+            return new MySql();
+        } else if (config.isPSQL()) {
+            return new PostgreSql();
+        } else if (config.isXERIAL()) {
+            return new Sqlite();
+        }
+        return new Generic();
+    }
+
+    /**
+     * Adds driver specific data source properties, keeping the ones already set
+     *
+     * @param properties Hikari properties
+     */
+    void configure(Properties properties) {
+    }
+
+    /**
+     * <p>getCurrentSchema.</p>
+     *
+     * @param link database connection
+     * @return schema pattern for metadata queries, null for all schemas
+     * @throws SQLException on database error
+     */
+    String getCurrentSchema(Connection link) throws SQLException {
+        return null;
+    }
+
+    /**
+     * Converts identifier from metadata to the case used in requests
+     *
+     * @param name table or column name
+     * @return converted name
+     */
+    String getNativeCaseName(String name) {
+        return name;
+    }
+
+    /**
+     * Normalizes type name read from the metadata (without precision)
+     *
+     * @param typeName type name
+     * @return normalized type name
+     */
+    String getColumnTypeName(String typeName) {
+        return typeName;
+    }
+
+    /**
+     * Limits the query to the page. Parameters are bound in the order of
+     * {@link #addPageParameters(List, int, int, int)}.
+     *
+     * @param sql             ordered query
+     * @param limit           page size
+     * @param offset          rows to skip
+     * @param databaseVersion major version of the database
+     * @return paged query
+     */
+    SQL applyLimit(SQL sql, int limit, int offset, int databaseVersion) {
+        sql.keyword("LIMIT").VALUE(limit);
+        sql.keyword("OFFSET").VALUE(offset);
+        return sql;
+    }
+
+    /**
+     * Collects page parameters in the order they are bound by
+     * {@link #applyLimit(SQL, int, int, int)}
+     */
+    void addPageParameters(List<Object> parameters, int limit, int offset, int databaseVersion) {
+        parameters.add(limit);
+        parameters.add(offset);
+    }
+
+    /**
+     * Prepares INSERT/UPDATE/DELETE statement which returns generated keys
+     *
+     * @param link     database connection
+     * @param sql      statement
+     * @param idColumn fully-qualified primary key or null
+     * @return prepared statement
+     * @throws SQLException on database error
+     */
+    PreparedStatement prepareUpdate(Connection link, String sql, String idColumn) throws SQLException {
+        return link.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+    }
+
+    /**
+     * Returns true if the driver reports generated keys of all batched inserts
+     */
+    boolean hasBatchGeneratedKeys() {
+        return false;
+    }
+
+    /**
+     * Returns true if the driver reports the update count of every batched
+     * statement, instead of Statement.SUCCESS_NO_INFO
+     */
+    boolean hasBatchUpdateCounts() {
+        return true;
+    }
+
+    /**
+     * Maximum number of bind parameters in a single statement
+     *
+     * @return parameter cap of the driver or 0 if multi-row inserts are not supported
+     */
+    int getMaxBindParameters() {
+        return 0;
+    }
+
+    /**
+     * Column returned by multi-row inserts with RETURNING, for drivers which
+     * report the last generated key only
+     *
+     * @return returned column or null to read generated keys
+     */
+    String getMultiRowInsertReturning() {
+        return null;
+    }
+
+    /**
+     * Default fetch size of LIST queries, see {@link ApiConfig#getFetchSize(String, String)}
+     *
+     * @return rows fetched at once or 0 for the driver default
+     */
+    int getDefaultFetchSize() {
+        return 0;
+    }
+
+    /**
+     * Returns true if the driver streams results with fetch size only within
+     * a transaction (autocommit off)
+     */
+    boolean hasTransactionalCursors() {
+        return false;
+    }
+
+    /**
+     * Returns true if the statement failed because of its query timeout
+     *
+     * @param e statement failure
+     */
+    boolean isQueryTimeout(SQLException e) {
+        return e instanceof SQLTimeoutException;
+    }
+
+    /**
+     * Default maximum number of values in a single IN list
+     */
+    int getMaxInListSize() {
+        return 1000;
+    }
+
+    /**
+     * Returns array type to bind key values as single array parameter
+     *
+     * @param columnType normalized type of the key column
+     * @return array type or null if values of the column can't be bound as array
+     */
+    String getArrayType(String columnType) {
+        return null;
+    }
+
+    /**
+     * Query of the catalog row estimate, with table name parameter
+     *
+     * @return SQL or null if the database has no estimate
+     */
+    String getEstimatedCountSql() {
+        return null;
+    }
+
+    /**
+     * Converts JSON object or array input to a bind parameter
+     *
+     * @param link  database connection
+     * @param value Map or List value
+     * @param gson  JSON serializer
+     * @return bind parameter
+     * @throws SQLException on database error
+     */
+    Object getJsonParameter(Connection link, Object value, Gson gson) throws SQLException {
+        return gson.toJson(value);
+    }
+
+    /**
+     * Returns true if date and time input must be bound as Date/Timestamp
+     */
+    boolean hasTypedTimeParameters() {
+        return false;
+    }
+
+    /**
+     * Selects geometry column as WKT text, aliased with underscores
+     *
+     * @param column fully-qualified column
+     * @return select list item
+     */
+    String selectGeometry(String column) {
+        return String.format("ST_asText(%s) as %s", column, column.replace(".", "_"));
+    }
+
+    /**
+     * Spatial filter condition
+     *
+     * @param function OGC function name without prefix, eg. Within
+     * @param column   geometry column
+     * @param geometry geometry expression
+     * @return condition
+     */
+    String getSpatialFilter(String function, String column, String geometry) {
+        return String.format("ST_%s(%s, %s)", function, column, geometry);
+    }
+
+    /**
+     * Geometry expression of WKT literal
+     *
+     * @param wkt well-known text
+     * @return geometry expression
+     */
+    String getGeometryFromText(String wkt) {
+        return String.format("ST_GeomFromText('%s')", wkt);
+    }
+
+    /**
+     * Appends geometry value of WKT parameter
+     *
+     * @param sql   statement after "column ="
+     * @param value well-known text
+     */
+    void appendGeometry(SQL sql, Object value) {
+        sql.keyword("ST_GeomFromText").openParen().VALUE(value).closeParen();
+    }
+
+    private static final class Generic extends Dialect {
+    }
+
+    private static final class MySql extends Dialect {
+        @Override
+        void configure(Properties properties) {
+            //this is no longer supported in Mysql Connector Java 8, but utf8 is now default
+//            properties.put("dataSource.useUnicode", "true");
+            properties.putIfAbsent("dataSource.characterEncoding", "utf8");
+            //the api generates the same SQL text for the same query shape, let the driver reuse it
+            properties.putIfAbsent("dataSource.cachePrepStmts", "true");
+            properties.putIfAbsent("dataSource.prepStmtCacheSize", "250");
+            properties.putIfAbsent("dataSource.prepStmtCacheSqlLimit", "2048");
+            //sends batched inserts as multi-row statements
+            properties.putIfAbsent("dataSource.rewriteBatchedStatements", "true");
+        }
+
+        @Override
+        boolean hasBatchGeneratedKeys() {
+            return true;
+        }
+
+        @Override
+        int getMaxBindParameters() {
+            return 65535;
+        }
+
+        @Override
+        String getEstimatedCountSql() {
+            return "SELECT TABLE_ROWS FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?";
+        }
+    }
+
+    private static final class PostgreSql extends Dialect {
+        @Override
+        void configure(Properties properties) {
+            //allows proper handling of timestamps like "2013-12-11 10:09:08"
+            properties.putIfAbsent("dataSource.stringType", "unspecified");
+            //sends batched inserts as multi-row statements
+            properties.putIfAbsent("dataSource.reWriteBatchedInserts", "true");
+        }
+
+        @Override
+        String getCurrentSchema(Connection link) throws SQLException {
+            //tables are resolved through search_path, same-named tables of other schemas are ignored
+            return link.getSchema();
+        }
+
+        @Override
+        int getDefaultFetchSize() {
+            return 1000;
+        }
+
+        @Override
+        boolean hasTransactionalCursors() {
+            return true;
+        }
+
+        @Override
+        boolean isQueryTimeout(SQLException e) {
+            //query_canceled, the driver doesn't throw SQLTimeoutException
+            return super.isQueryTimeout(e) || "57014".equals(e.getSQLState());
+        }
+
+        @Override
+        boolean hasBatchGeneratedKeys() {
+            return true;
+        }
+
+        @Override
+        int getMaxBindParameters() {
+            return 32767;
+        }
+
+        @Override
+        String getArrayType(String columnType) {
+            if (columnType == null) {
+                return null;
+            }
+            switch (columnType.toUpperCase()) {
+                case "INT2":
+                case "INT4":
+                case "INT8":
+                case "SERIAL":
+                case "BIGSERIAL":
+                    return "int8";
+                case "TEXT":
+                case "VARCHAR":
+                case "BPCHAR":
+                    return "text";
+                default:
+                    return null;    //uuid and others are bound as IN list
+            }
+        }
+
+        @Override
+        String getEstimatedCountSql() {
+            return "SELECT c.reltuples FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace"
+                    + " WHERE n.nspname = current_schema() AND c.relname = ?";
+        }
+
+        @Override
+        boolean hasTypedTimeParameters() {
+            return true;
+        }
+    }
+
+    private static final class SqlServer extends Dialect {
+        @Override
+        String getCurrentSchema(Connection link) {
+            return "dbo";
+        }
+
+        @Override
+        SQL applyLimit(SQL sql, int limit, int offset, int databaseVersion) {
+            sql.keyword("OFFSET").VALUE(offset).keyword("ROWS");
+            sql.keyword("FETCH NEXT").VALUE(limit).keyword("ROWS ONLY");
+            return sql;
+        }
+
+        @Override
+        void addPageParameters(List<Object> parameters, int limit, int offset, int databaseVersion) {
+            parameters.add(offset);
+            parameters.add(limit);
+        }
+
+        @Override
+        int getMaxInListSize() {
+            return 2000;        //2100 parameters per statement
+        }
+
+        @Override
+        String getEstimatedCountSql() {
+            return "SELECT SUM(rows) FROM sys.partitions WHERE object_id = OBJECT_ID(?) AND index_id IN (0, 1)";
+        }
+
+        @Override
+        Object getJsonParameter(Connection link, Object value, Gson gson) throws SQLException {
+            final SQLXML sqlxml = link.createSQLXML();
+            final JSON json = JSONSerializer.toJSON(value);
+            String xml;
+            if (json.isEmpty()) {
+                xml = "<root type=\"object\"/>";
+            } else {
+                final XMLSerializer xmlSerializer = new XMLSerializer();
+                xmlSerializer.setRootName("root");
+                xml = xmlSerializer.write(json);
+                //remove first line <?xml version="1.0" encoding="utf-8"?>\r\n<root>...</root>
+                xml = xml.replaceFirst(".*\r\n<root>(.*)", "<root type=\"object\">$1").trim();
+                xml = xml.replace("class=\"", "type=\"");
+            }
+            sqlxml.setString(xml);
+            return sqlxml;
+        }
+
+        @Override
+        String selectGeometry(String column) {
+            return String.format("%s.STAsText() as %s", column, column.replace(".", "_"));
+        }
+
+        @Override
+        String getSpatialFilter(String function, String column, String geometry) {
+            return String.format("%s.ST%s(%s)", column, function, geometry);
+        }
+
+        @Override
+        String getGeometryFromText(String wkt) {
+            return String.format("geometry::STGeomFromText('%s',0)", wkt);
+        }
+
+        @Override
+        void appendGeometry(SQL sql, Object value) {
+            sql.keyword("geometry::STGeomFromText").openParen().VALUE(value).comma().VALUE(0).closeParen();
+        }
+    }
+
+    private static final class Oracle extends Dialect {
+        @Override
+        String getCurrentSchema(Connection link) throws SQLException {
+            return link.getMetaData().getUserName();
+        }
+
+        @Override
+        String getNativeCaseName(String name) {
+            //Oracle metadata is upper-case by default, convert it to lowercase
+            return name.toLowerCase();
+        }
+
+        @Override
+        String getColumnTypeName(String typeName) {
+            return "SDO_GEOMETRY".equalsIgnoreCase(typeName) ? "MDSYS.SDO_GEOMETRY" : typeName;
+        }
+
+        @Override
+        SQL applyLimit(SQL sql, int limit, int offset, int databaseVersion) {
+            if (databaseVersion >= 12) {
+                sql.keyword("OFFSET").VALUE(offset).keyword("ROWS");
+                sql.keyword("FETCH NEXT").VALUE(limit).keyword("ROWS ONLY");
+                return sql;
+            }
+            //ROWNUM <= end in the inner query lets the optimizer stop after the last row of the page (COUNT STOPKEY);
+            //row number is the last column, so ordinals of the selected columns are kept
+            SQL sqlRowNum = SELECT("t.*", "rownum as rownumid")
+                    .FROM(sql).keyword("t")
+                    .keyword("WHERE rownum <=").VALUE(limit + offset);
+
+            SQL sqlFilter = SELECT("*").FROM(sqlRowNum);
+            sqlFilter.keyword("WHERE rownumid >").VALUE(offset);
+            return sqlFilter;
+        }
+
+        @Override
+        void addPageParameters(List<Object> parameters, int limit, int offset, int databaseVersion) {
+            if (databaseVersion >= 12) {
+                parameters.add(offset);
+                parameters.add(limit);
+            } else {
+                parameters.add(limit + offset);
+                parameters.add(offset);
+            }
+        }
+
+        @Override
+        PreparedStatement prepareUpdate(Connection link, String sql, String idColumn) throws SQLException {
+            String[] pks = {};
+            if (idColumn != null) {
+                pks = new String[]{idColumn.split("\\.")[1]};
+            }
+            return link.prepareStatement(sql, pks);
+        }
+
+        @Override
+        String getEstimatedCountSql() {
+            //unquoted names are stored in upper case, the API may use any case
+            return "SELECT NUM_ROWS FROM USER_TABLES WHERE UPPER(TABLE_NAME) = UPPER(?)";
+        }
+
+        @Override
+        int getDefaultFetchSize() {
+            return 500;         //driver's default row prefetch is 10
+        }
+
+        @Override
+        boolean hasTypedTimeParameters() {
+            return true;
+        }
+
+        @Override
+        boolean hasBatchUpdateCounts() {
+            return false;       //drivers before 12c report SUCCESS_NO_INFO
+        }
+
+        @Override
+        String selectGeometry(String column) {
+            return column;
+        }
+
+        @Override
+        String getGeometryFromText(String wkt) {
+            return String.format("SDO_GEOMETRY('%s')", wkt);
+        }
+
+        @Override
+        void appendGeometry(SQL sql, Object value) {
+            sql.keyword("SDO_GEOMETRY").openParen().VALUE(value).closeParen();
+        }
+    }
+
+    private static final class Sqlite extends Dialect {
+        @Override
+        int getMaxBindParameters() {
+            return 32766;
+        }
+
+        @Override
+        String getMultiRowInsertReturning() {
+            //SQLite driver reports the last generated key only
+            return "rowid";
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *  Copyright (c) 2017. I.Kolchagov, All rights reserved.
+ *  Contact: I.Kolchagov (kolchagov (at) gmail.com)
+ *
+ *  The contents of this file is licensed under the terms of LGPLv3 license.
+ *  You may read the the included file 'lgpl-3.0.txt'
+ *  or https://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the License.
+ *
+ *  The project uses 'fluentsql' internally, licensed under Apache Public License v2.0.
+ *  https://github.com/ivanceras/fluentsql/blob/master/LICENSE.txt
+ *
+ */
+
+package eu.hadeco.crudapi;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Balances read-only connections over the read replicas. The replica with the
+ * fewest active connections is chosen, starting the search round-robin so the
+ * ties are spread evenly. Replicas which fail to connect are ejected for a
+ * while; without a healthy replica the caller falls back to the primary.
+ *
+ * @author ivankol
+ * @version $Id: $Id
+ */
+class ReplicaRouter {
+    private static final Logger LOGR = Logger.getLogger(ReplicaRouter.class.getName());
+    private static final long EJECT_TO = 30 * 1000; //30s
+    private final List<Replica> replicas = new CopyOnWriteArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+
+    void add(HikariDataSource dataSource) {
+        replicas.add(new Replica(dataSource));
+    }
+
+    boolean isEmpty() {
+        return replicas.isEmpty();
+    }
+
+    /**
+     * Returns connection of a healthy replica
+     *
+     * @return connection or null if no replica is available
+     */
+    Connection getConnection() {
+        HikariDataSource replica;
+        while ((replica = select()) != null) {
+            try {
+                return replica.getConnection();
+            } catch (SQLException e) {
+                eject(replica, e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Selects healthy replica
+     *
+     * @return replica data source or null if no replica is available
+     */
+    HikariDataSource select() {
+        final int size = replicas.size();
+        final int start = next.getAndIncrement() & Integer.MAX_VALUE;
+        final long now = System.currentTimeMillis();
+        Replica selected = null;
+        int selectedActive = 0;
+        for (int i = 0; i < size; i++) {
+            final Replica replica = replicas.get((start + i) % size);
+            if (replica.ejectedUntil > now) {
+                continue;
+            }
+            final int active = replica.getActiveConnections();
+            if (selected == null || active < selectedActive) {
+                selected = replica;
+                selectedActive = active;
+            }
+        }
+        return selected == null ? null : selected.dataSource;
+    }
+
+    /**
+     * Ejects replica which failed to connect
+     *
+     * @param dataSource replica data source
+     * @param e          connection failure
+     */
+    void eject(HikariDataSource dataSource, SQLException e) {
+        for (Replica replica : replicas) {
+            if (replica.dataSource == dataSource) {
+                LOGR.log(Level.WARNING, "Replica {0} ejected: {1}", new Object[]{dataSource.getPoolName(), e.getMessage()});
+                replica.ejectedUntil = System.currentTimeMillis() + EJECT_TO;
+            }
+        }
+    }
+
+    void close() {
+        for (Replica replica : replicas) {
+            replica.dataSource.close();
+        }
+        replicas.clear();
+    }
+
+    private static class Replica {
+        private final HikariDataSource dataSource;
+        private volatile long ejectedUntil;
+
+        Replica(HikariDataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        int getActiveConnections() {
+            final HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+            return pool == null ? 0 : pool.getActiveConnections();
+        }
+    }
+}
@@ -20,27 +20,39 @@ import android.util.Base64;
 import com.google.gson.*;
 import com.google.gson.internal.LinkedTreeMap;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
 import com.ivanceras.fluent.sql.Breakdown;
 import com.ivanceras.fluent.sql.SQL;
-import net.sf.json.JSON;
-import net.sf.json.JSONSerializer;
-import net.sf.json.xml.XMLSerializer;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
+import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 import java.sql.Date;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import static com.ivanceras.fluent.sql.SQL.Statics.DELETE;
@@ -66,7 +78,29 @@ public class RequestHandler {
     private static final Gson gson;
     //Change this to true during development - turns on sql exceptions logging
     private static final boolean DEBUG_SQL = false;
-    private static String quoteString = "\"";
+    //rows of streamed JSON input sent to the database at once
+    private static final int INPUT_BATCH_SIZE = 1000;
+    //optional client query timeout in seconds, can only shorten ApiConfig.getQueryTimeout()
+    private static final String QUERY_TIMEOUT_HEADER = "X-Query-Timeout";
+    //rows written between client connection checks
+    private static final int PROGRESS_CHECK_ROWS = 1000;
+    //seconds, sent with 503 responses of rejected requests
+    private static final String RETRY_AFTER = "1";
+    //expiry time (millis) of the read-your-writes window of the client
+    private static final String PRIMARY_COOKIE = "crudapi-primary";
+    private static final Type JSON_ROW_TYPE = new TypeToken<Map<String, Object>>() {
+    }.getType();
+    //fetches sibling included tables, bounded per request by ApiConfig.getMaxParallelIncludes();
+    //branches run in the request thread when all threads are busy
+    private static final ExecutorService INCLUDE_FETCHER = new ThreadPoolExecutor(0, 64, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "crud-api-include-fetch");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
     static {
         final GsonBuilder gsonBuilder = new GsonBuilder();
@@ -88,8 +122,10 @@ public class RequestHandler {
     private final Map<String, String[]> parameters;
     private final Map<String, String> satisfyAny;
     private final ApiConfig config;
+    private final Dialect dialect;
     private final boolean isJsonContent;
     private final HttpServletRequest req;
+    private final HttpServletResponse resp;
     private final String table;
     private final List<String> includeTables;
     //typeMap contains SQL column types for all selected includeTables with fully-qualified names eg: posts.id->INT ...
@@ -101,22 +137,42 @@ public class RequestHandler {
     private final Map<String, Set<String>> columns;
     private final String idColumn, databaseName;
     private final Map<String, List<String>> orderMap;
+    //read-only tables metadata, shared between requests
     private final Map<String, TableMeta> tableMetaMap;
+    //request-scoped copies of tableMetaMap entries, which hold the relations between included tables
+    private final Map<String, TableMeta> relatedTableMap;
+    private final String quoteString;
+    private final long schemaVersion;
+    private final int databaseMajorVersion;
     private Actions action;
-    private JsonElement root;
+    //keyset page of LIST requests with the seek parameter
+    private SeekCursor seekCursor;
+    //rows fetched at once by read statements, 0 for driver default
+    private int fetchSize;
+    //query timeout of the statements in seconds, 0 for none
+    private final int queryTimeout;
+    //statements of the request (include branches too), cancelled when the client goes away
+    private final Cancellation cancellation;
+    //connections of the request, pinned to its replica
+    private final ConnectionBudget connections;
+    private Map<String, Object> jsonObject;
+    private JsonReader jsonRows;
     private final boolean withTransform;
     private final boolean withDebugInserts; //this enables proper error response to POST requests, instead of null
 
-    private RequestHandler(Connection link, HttpServletRequest req, ApiConfig apiConfig) throws SQLException, IOException, ClassNotFoundException {
+    private RequestHandler(Connection link, HttpServletRequest req, HttpServletResponse resp, ApiConfig apiConfig,
+                           ConnectionBudget connections, Cancellation cancellation)
+            throws SQLException, IOException, ClassNotFoundException {
         this.link = link;
+        this.connections = connections;
+        this.cancellation = cancellation;
         this.req = req;
+        this.resp = resp;
         this.config = apiConfig;
         this.databaseName = link.getCatalog();
-        final String pathInfo = req.getPathInfo();
-        String[] request = pathInfo == null ? new String[]{""} : pathInfo.replaceAll("/$|^/", "").split("/");
-        this.root = null;
+        String[] request = parsePath(req);
         // retrieve the table and key from the path
-        String tableName = request[0].replaceAll("[^a-zA-Z0-9_]+", "");
+        String tableName = getTableName(request);
         if (tableName.isEmpty()) {
             throw new ClassNotFoundException("entity");
         }
@@ -124,17 +180,19 @@ public class RequestHandler {
         isJsonContent = contentType != null && contentType.toLowerCase().startsWith("application/json");
         if (isJsonContent) {
             try {
-                //For gson < 2.8.5
-                this.root = (new JsonParser()).parse(req.getReader());
-                //For gson 2.9+
-//                StringBuilder sb = new StringBuilder();
-//                BufferedReader reader = req.getReader();
-//                String line;
-//                while ((line = reader.readLine()) != null) {
-//                    sb.append(line.trim());
-//                }
-//                this.root = JsonParser.parseString(sb.toString());
-            } catch (JsonParseException e) {
+                //single objects are parsed here, arrays are streamed row by row in handleRequest()
+                final JsonReader reader = new JsonReader(req.getReader());
+                reader.setLenient(true);
+                final JsonToken token = reader.peek();
+                if (token == JsonToken.BEGIN_OBJECT) {
+                    this.jsonObject = gson.fromJson(reader, JSON_ROW_TYPE);
+                } else if (token == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    this.jsonRows = reader;
+                }
+            } catch (EOFException ignored) {
+                //empty body
+            } catch (JsonParseException | MalformedJsonException e) {
                 throw new ClassNotFoundException("input");
             }
         }
@@ -152,7 +210,13 @@ public class RequestHandler {
         withDebugInserts = "1".equals(debugInsertParam) || "1".equals(debugInsertHeader);
 
         this.table = tableName;
-        this.tableMetaMap = getTableMetaMap();
+        final SchemaSnapshot schema = config.getSchemaSnapshot(link);
+        this.tableMetaMap = schema.getTables();
+        this.relatedTableMap = new HashMap<>();
+        this.quoteString = schema.getQuoteString();
+        this.schemaVersion = schema.getVersion();
+        this.databaseMajorVersion = schema.getDatabaseMajorVersion();
+        this.dialect = config.getDialect();
         if (!tableMetaMap.containsKey(tableName)) {
             throw new ClassNotFoundException("entity");
         }
@@ -160,6 +224,7 @@ public class RequestHandler {
         if (!config.tableAuthorizer(action, databaseName, tableName)) {
             throw new ClassNotFoundException("entity");
         }
+        this.queryTimeout = getQueryTimeout(tableName);
         this.typeMap = getColumnTypesMap(tableName);
         this.includeTables = applyInclude();
         //add non-prefixed columns to process input
@@ -182,19 +247,154 @@ public class RequestHandler {
      * @throws java.io.IOException if cannot select utf-8 encoding
      */
     public static void handle(HttpServletRequest req, HttpServletResponse resp, ApiConfig apiConfig) throws IOException {
+        handle(req, resp, apiConfig, new Cancellation());
+    }
+
+    /**
+     * Handles the request, which can be cancelled from another thread
+     *
+     * @param req          servlet request
+     * @param resp         servlet response to handle
+     * @param apiConfig    preconfigured ApiConfig class
+     * @param cancellation cancels the statements of the request
+     * @throws java.io.IOException if cannot select utf-8 encoding
+     */
+    static void handle(HttpServletRequest req, HttpServletResponse resp, ApiConfig apiConfig,
+                       Cancellation cancellation) throws IOException {
         req.setCharacterEncoding("utf-8");
         resp.setCharacterEncoding("utf-8");
+        final String[] request = parsePath(req);
+        final String tableName = getTableName(request);
+        Actions action;
+        try {
+            action = getAction(req.getMethod(), request.length > 1);
+        } catch (ClassNotFoundException ignored) {
+            action = null;      //unsupported method, rejected by the handler
+        }
+        Bulkhead bulkhead = null;
+        try {
+            if (!tableName.isEmpty() && action != null) {
+                bulkhead = apiConfig.getBulkhead(tableName, action);
+            }
+        } catch (ClassNotFoundException e) {
+            resp.setContentType("text/plain");
+            resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            try (PrintWriter writer = resp.getWriter()) {
+                writer.write(String.format("Not found (%s)", e.getMessage()));
+            }
+            return;
+        }
+        boolean isAdmitted = false;
+        try {
+            isAdmitted = bulkhead == null || bulkhead.acquire(apiConfig.getAdmissionTimeout());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!isAdmitted) {
+            sendServiceUnavailable(resp, "Too many requests, try again later");
+            return;
+        }
+        final long started = System.nanoTime();
+        boolean isOverloaded = true;
+        try {
+            final boolean isReplicaRead = action != null && action.isReadOnly()
+                    && apiConfig.hasReplicas() && !isReadingOwnWrites(req);
+            isOverloaded = handleAdmitted(req, resp, apiConfig, isReplicaRead, cancellation);
+        } finally {
+            if (bulkhead != null) {
+                bulkhead.release(System.nanoTime() - started, isOverloaded);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the client has written within the read-your-writes window
+     */
+    private static boolean isReadingOwnWrites(HttpServletRequest req) {
+        final Cookie[] cookies = req.getCookies();
+        if (cookies != null) {
+            for (Cookie cookie : cookies) {
+                if (PRIMARY_COOKIE.equals(cookie.getName())) {
+                    try {
+                        return Long.parseLong(cookie.getValue()) > System.currentTimeMillis();
+                    } catch (NumberFormatException ignored) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sends following reads of the client to the primary for the read-your-writes window
+     */
+    private static void addPrimaryCookie(HttpServletResponse resp, ApiConfig apiConfig) {
+        final long window = apiConfig.getReadYourWritesWindow();
+        if (window > 0) {
+            final Cookie cookie = new Cookie(PRIMARY_COOKIE, String.valueOf(System.currentTimeMillis() + window));
+            cookie.setPath("/");
+            cookie.setHttpOnly(true);
+            cookie.setMaxAge((int) TimeUnit.MILLISECONDS.toSeconds(window + 999));
+            resp.addCookie(cookie);
+        }
+    }
+
+    private static String[] parsePath(HttpServletRequest req) {
+        final String pathInfo = req.getPathInfo();
+        return pathInfo == null ? new String[]{""} : pathInfo.replaceAll("/$|^/", "").split("/");
+    }
+
+    private static String getTableName(String[] request) {
+        return request[0].replaceAll("[^a-zA-Z0-9_]+", "");
+    }
+
+    static void sendServiceUnavailable(HttpServletResponse resp, String message) throws IOException {
+        resp.setContentType("text/plain");
+        resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        resp.setHeader("Retry-After", RETRY_AFTER);
+        try (PrintWriter writer = resp.getWriter()) {
+            writer.write(message);
+        }
+    }
+
+    /**
+     * Handles admitted request
+     *
+     * @param isReplicaRead reads from a replica
+     * @param cancellation  cancels the statements of the request
+     * @return true if the request failed because of overload
+     */
+    private static boolean handleAdmitted(HttpServletRequest req, HttpServletResponse resp, ApiConfig apiConfig,
+                                          boolean isReplicaRead, Cancellation cancellation) throws IOException {
+        RequestHandler handler = null;
         try (PrintWriter writer = resp.getWriter()) {
             try {
-                try (Connection link = apiConfig.getConnection()) {
+                final ConnectionBudget connections = new ConnectionBudget(apiConfig, isReplicaRead);
+                try (Connection link = connections.open()) {
                     if (link == null) {
                         throw new IllegalStateException("Cannot establish DB connection. Try again later.");
                     }
-                    RequestHandler handler = new RequestHandler(link, req, apiConfig);
+                    handler = new RequestHandler(link, req, resp, apiConfig, connections, cancellation);
                     resp.setContentType("application/json; charset=utf-8");
                     resp.setStatus(HttpServletResponse.SC_OK);
                     handler.handleRequest(writer);
                 }
+            } catch (ClientAbortException ex) {
+                if (cancellation.isExpired()) {
+                    sendRequestTimeout(req, resp, writer);
+                    return true;
+                }
+                //nobody reads the response, the connection is already returned to the pool
+                LOGR.log(Level.FINE, "Client disconnected: {0}", req.getRequestURI());
+            } catch (SQLTransientConnectionException ex) {
+                //connection pool timeout
+                LOGR.log(Level.WARNING, ex.getMessage());
+                resp.setContentType("text/plain");
+                resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                resp.setHeader("Retry-After", RETRY_AFTER);
+                writer.write("Cannot establish DB connection. Try again later.");
+                return true;
             } catch (NumberFormatException ex) {
                 resp.setContentType("text/plain");
                 resp.setStatus(HttpServletResponse.SC_NOT_ACCEPTABLE);
@@ -204,11 +404,30 @@ public class RequestHandler {
                 resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
                 writer.write(String.format("Not found (%s)", ex.getMessage()));
             } catch (IllegalArgumentException ex) {
+                if (!resp.isCommitted()) {
+                    //e.g. a NULL seek column, found after the page has been written
+                    resp.resetBuffer();
+                }
                 resp.setContentType("text/plain");
                 resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                 final String message = ex.getMessage() == null ? "null" : ex.getMessage();
                 writer.write(message);
             } catch (Exception e) {
+                if (cancellation.isExpired()) {
+                    //statements fail with driver specific errors when cancelled
+                    sendRequestTimeout(req, resp, writer);
+                    return true;
+                }
+                if (isQueryTimeout(apiConfig.getDialect(), e)) {
+                    LOGR.log(Level.WARNING, "Query timeout: {0}", req.getRequestURI());
+                    if (!resp.isCommitted()) {
+                        resp.resetBuffer();
+                        resp.setContentType("text/plain");
+                        resp.setStatus(HttpServletResponse.SC_GATEWAY_TIMEOUT);
+                        writer.write("Query timeout");
+                    }
+                    return true;
+                }
                 LOGR.log(Level.SEVERE, e.getMessage(), e);
                 resp.setContentType("text/plain");
                 resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
@@ -216,6 +435,101 @@ public class RequestHandler {
                 e.printStackTrace(writer);
             }
         }
+        return false;
+    }
+
+    private static void sendRequestTimeout(HttpServletRequest req, HttpServletResponse resp, PrintWriter writer) {
+        LOGR.log(Level.WARNING, "Request timeout: {0}", req.getRequestURI());
+        if (!resp.isCommitted()) {
+            resp.resetBuffer();
+            resp.setContentType("text/plain");
+            resp.setStatus(HttpServletResponse.SC_GATEWAY_TIMEOUT);
+            writer.write("Request timeout");
+        }
+    }
+
+    private static boolean isQueryTimeout(Dialect dialect, Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException && dialect.isQueryTimeout((SQLException) cause)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Query timeout of the request statements: configured for the table and
+     * optionally shortened by the client header. Invalid header values are
+     * ignored.
+     *
+     * @param tableName requested table
+     * @return timeout in seconds, 0 for none
+     */
+    private int getQueryTimeout(String tableName) {
+        int timeout = config.getQueryTimeout(databaseName, tableName);
+        final String header = req.getHeader(QUERY_TIMEOUT_HEADER);
+        if (header != null) {
+            int requested = 0;
+            try {
+                requested = Integer.parseInt(header.trim());
+            } catch (NumberFormatException ignored) {
+                //not a number, same as not positive
+            }
+            if (requested > 0) {
+                timeout = timeout > 0 ? Math.min(timeout, requested) : requested;
+            } else {
+                LOGR.log(Level.FINE, "Invalid {0} header ignored: {1}", new Object[]{QUERY_TIMEOUT_HEADER, header});
+            }
+        }
+        return timeout;
+    }
+
+    /**
+     * Limits execution time of the statement. The timeout doesn't cover
+     * fetching and writing of the results.
+     *
+     * @param statement prepared statement
+     * @throws SQLException on database error
+     */
+    private void applyQueryTimeout(Statement statement) throws SQLException {
+        if (queryTimeout > 0) {
+            try {
+                statement.setQueryTimeout(queryTimeout);
+            } catch (SQLFeatureNotSupportedException e) {
+                LOGR.log(Level.FINE, "Query timeout not supported", e);
+            }
+        }
+    }
+
+    /**
+     * Stops reading of the results if the client has gone away. The check
+     * flushes the response, so it runs once in {@link #PROGRESS_CHECK_ROWS}
+     * rows. Include branches buffer their output, they stop when the request
+     * is cancelled.
+     *
+     * @param writer response writer
+     * @param rows   rows written so far
+     */
+    private void checkProgress(PrintWriter writer, int rows) {
+        if (cancellation.isCancelled()) {
+            throw new ClientAbortException();
+        }
+        if (rows % PROGRESS_CHECK_ROWS == 0) {
+            checkDisconnect(writer);
+        }
+    }
+
+    /**
+     * Cancels the running statements if the client has gone away. Flushes the
+     * response.
+     *
+     * @param writer response writer
+     */
+    private void checkDisconnect(PrintWriter writer) {
+        if (writer.checkError()) {
+            cancellation.cancel();
+            throw new ClientAbortException();
+        }
     }
 
     private static Object fixNumeric(Object o) {
@@ -280,7 +594,7 @@ public class RequestHandler {
         return orderMap;
     }
 
-    private Actions getAction(String method, boolean hasId) throws ClassNotFoundException {
+    private static Actions getAction(String method, boolean hasId) throws ClassNotFoundException {
         Actions action;
         switch (method) {
             case "GET":
@@ -309,24 +623,12 @@ public class RequestHandler {
     }
 
     private Map<String, String> getColumnTypesMap(String table) throws ClassNotFoundException {
-        ResultSetMetaData rsMeta;
-        Map<String, String> tableTypeMap;
-        try (ResultSet rs = link.createStatement().executeQuery(
-                String.format("SELECT * from %s where 0=1", table))) {
-            rsMeta = rs.getMetaData();
-            tableTypeMap = new LinkedTreeMap<>(String.CASE_INSENSITIVE_ORDER);
-            for (int i = 0; i < rsMeta.getColumnCount(); i++) {
-                String columnTypeName = rsMeta.getColumnTypeName(i + 1);
-                if ("NULL".equals(columnTypeName)) {
-                    //special case: sqlite view's count() columns
-                    columnTypeName = "INT";
-                }
-                final String columnName = rsMeta.getColumnName(i + 1);
-                tableTypeMap.put(getFullColumnName(table, columnName), columnTypeName);
-            }
-        } catch (SQLException ex) {
+        final TableMeta tableMeta = tableMetaMap.get(table);
+        if (tableMeta == null) {
             throw new ClassNotFoundException("entity");
         }
+        Map<String, String> tableTypeMap = new LinkedTreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        tableTypeMap.putAll(tableMeta.getColumnTypes());
         return tableTypeMap;
     }
 
@@ -373,22 +675,24 @@ public class RequestHandler {
 //        }
 //        return includedTable;
 //    }
-    private String getPrimaryKey(String table) throws SQLException {
-        DatabaseMetaData metaData = link.getMetaData();
-        String schemaPattern = getCurrentSchema();
-        final String tableNamePattern = config.isOracle() ? table.toUpperCase() : table;
-        String primaryKey;
-        try (ResultSet rs = metaData.getPrimaryKeys(databaseName, schemaPattern, tableNamePattern)) {
-            primaryKey = null;
-            while (rs.next()) {
-                final String keyColumnName = rs.getString("COLUMN_NAME");
-                if (table.equalsIgnoreCase(rs.getString("TABLE_NAME"))) {
-                    primaryKey = getFullColumnName(table, keyColumnName);
-                    break;
-                }
-            }
+    /**
+     * Returns request-scoped copy of table metadata, used to keep relations
+     * without modifying the shared schema snapshot
+     *
+     * @param table table name
+     * @return table metadata, with relations of this request
+     */
+    private TableMeta getTableMeta(String table) {
+        TableMeta tableMeta = relatedTableMap.get(table);
+        if (tableMeta == null) {
+            tableMeta = new TableMeta(tableMetaMap.get(table));
+            relatedTableMap.put(table, tableMeta);
         }
-        return primaryKey;
+        return tableMeta;
+    }
+
+    private String getPrimaryKey(String table) {
+        return tableMetaMap.get(table).getPrimaryKey();
     }
 
     private Map<String, Set<String>> parseTableColumns(HttpServletRequest request) throws ClassNotFoundException {
@@ -466,11 +770,7 @@ public class RequestHandler {
     }
 
     private String getNativeCaseName(String column) {
-        if (config.isOracle()) {
-            //Oracle metadata is upper-case by default, convert it to lowercase
-            column = column.toLowerCase();
-        }
-        return column;
+        return dialect.getNativeCaseName(column);
     }
 
     private String getFullColumnName(String table, String column) {
@@ -561,51 +861,227 @@ public class RequestHandler {
         return action == LIST || action == READ;
     }
 
-    private Map applyPaging(SQL sql) throws SQLException {
-        Map<String, Object> map = new HashMap<>();
-        map.put("sql", sql);
-        String pageParam = req.getParameter("page");
-        if (pageParam != null) {
+    /**
+     * Parses the page=N,size parameter
+     *
+     * @return limit and offset
+     */
+    private int[] getPage() {
+        if (orderMap.get(table) == null) {
+            throw new IllegalStateException("'page' without 'order' is not possible!");
+        }
+        String[] split = req.getParameter("page").split(",");
+        int pages = Integer.parseInt(split[0]);
+        pages = pages > 0 ? pages - 1 : 0;
+
+        int limit = split.length == 2 ? Integer.parseInt(split[1]) : 20;
+        int offset = pages * limit;
+        return new int[]{limit, offset};
+    }
 
-            final List<String> orders = applyOrder(sql, table);
-            if (orders == null) {
-                throw new IllegalStateException("'page' without 'order' is not possible!");
+    /**
+     * Parses the seek=size[,token] parameter. Rows are ordered by the order
+     * columns of the table followed by the primary key, the token holds their
+     * values of the last row of the previous page.
+     *
+     * @return keyset page
+     */
+    private SeekCursor getSeekCursor() {
+        final List<String> primaryKeys = getTableMeta(table).getPrimaryKeys();
+        if (primaryKeys.isEmpty()) {
+            throw new IllegalStateException("'seek' without primary key is not possible!");
+        }
+        String[] split = req.getParameter("seek").split(",", 2);
+        final SeekCursor cursor = new SeekCursor(split[0].isEmpty() ? 20 : Integer.parseInt(split[0]),
+                dialect.hasTypedTimeParameters());
+        final List<String> orders = orderMap.get(table);
+        if (orders != null) {
+            for (String order : orders) {
+                final String[] parts = order.trim().split("\\s+");
+                final String column = parts[0].contains(".") ? parts[0] : String.format("%s.%s", table, parts[0]);
+                if (!typeMap.containsKey(column)) {
+                    throw new IllegalArgumentException("Invalid order: " + order);
+                }
+                //rejected before any output, the next page can't start after a NULL value
+                final TableMeta columnTable = tableMetaMap.get(getTableName(column));
+                if (columnTable != null && columnTable.isNullable(column) && !primaryKeys.contains(column)) {
+                    throw new IllegalArgumentException(String.format("Seek order column %s is nullable", column));
+                }
+                cursor.addColumn(column, parts.length > 1 && "desc".equalsIgnoreCase(parts[1]));
+            }
+        }
+        for (String primaryKey : primaryKeys) {
+            if (!cursor.columns.contains(primaryKey)) {
+                cursor.addColumn(primaryKey, false);
             }
+        }
+        if (split.length == 2 && !split[1].isEmpty()) {
+            cursor.setToken(split[1]);
+        }
+        return cursor;
+    }
 
-            Integer resultCount = getResultCount(link, orders.get(0), table);
-            map.put("resultCount", resultCount);
+    /**
+     * Orders and limits the query. Limit and offset are bound as parameters, so
+     * the SQL text is the same for every page.
+     *
+     * @param sql  query to page
+     * @param page limit and offset
+     * @return paged query
+     */
+    private SQL applyPaging(SQL sql, int[] page) {
+        applyOrder(sql, table);
+        return applyLimit(sql, page);
+    }
 
-            String[] split = pageParam.split(",");
-            int pages = Integer.parseInt(split[0]);
-            pages = pages > 0 ? pages - 1 : 0;
+    private SQL applyLimit(SQL sql, int[] page) {
+        return dialect.applyLimit(sql, page[0], page[1], databaseMajorVersion);
+    }
 
-            int limit = split.length == 2 ? Integer.parseInt(split[1]) : 20;
-            int offset = pages * limit;
-            final boolean msSQL = config.isMsSQL();
-            final boolean oracle = config.isOracle();
-            if (!msSQL && !oracle) {
-                sql.LIMIT(limit);
+    /**
+     * Returns the main LIST/READ query. Built SQL is cached by the query shape,
+     * so hot requests skip the SQL builder and produce identical SQL text
+     * (which gives driver-side statement caches a chance to hit).
+     *
+     * @param columnsList selected columns
+     * @param ids         requested ids or null
+     * @param page        limit and offset or null
+     * @return query with parameters
+     */
+    private Breakdown getReadQuery(List<String> columnsList, String[] ids, int[] page) {
+        final LinkedList<Object> queryParameters = new LinkedList<>();
+        final String shape = getReadQueryShape(columnsList, ids, page, queryParameters);
+        final SqlTemplateCache templateCache = config.getSqlTemplateCache();
+        if (shape != null) {
+            final String template = templateCache.get(shape);
+            if (template != null) {
+                return new Breakdown(template, queryParameters);
             }
-            if (!oracle) {
-                sql.OFFSET(offset);
+        }
+        SQL sql = prepareSql(columnsList);
+        boolean hasFilters = applyFilters(sql, table, ids);
+        hasFilters = applyTenancyFilter(hasFilters, sql);
+        if (seekCursor != null) {
+            seekCursor.applyTo(sql, hasFilters);
+            sql = applyLimit(sql, page);
+        } else if (page != null) {
+            sql = applyPaging(sql, page);
+        }
+        final Breakdown breakdown = sql.build();
+        //cache only if the parameter plan matches the builder's output
+        if (shape != null && Arrays.equals(queryParameters.toArray(), breakdown.getParameters())) {
+            templateCache.put(shape, breakdown.getSql());
+        }
+        return breakdown;
+    }
+
+    /**
+     * Describes the main query as a key which is equal for all requests that
+     * differ by parameter values only, and collects these values in the order
+     * the SQL builder binds them: filters, ids, tenancy, seek, paging.
+     *
+     * @param columnsList     selected columns
+     * @param ids             requested ids or null
+     * @param page            limit and offset or null
+     * @param queryParameters collected parameter values
+     * @return query shape or null if the query should not be cached
+     */
+    private String getReadQueryShape(List<String> columnsList, String[] ids, int[] page, List<Object> queryParameters) {
+        StringBuilder shape = new StringBuilder();
+        shape.append(schemaVersion).append('|').append(action).append('|').append(table)
+                .append('|').append(columnsList);
+        final String[] filters = getFilters(table);
+        if (filters != null) {
+            shape.append(satisfyAny.containsKey(table) ? "|any" : "|all");
+            for (String filter : filters) {
+                final String filterShape = getFilterShape(filter, queryParameters);
+                if (filterShape == null) {
+                    return null;
+                }
+                shape.append('|').append(filterShape);
             }
-            if (msSQL) {
-                sql.keyword("ROWS");
-                sql.keyword(String.format("FETCH NEXT %d ROWS ONLY", limit));
+        }
+        if (ids != null && ids.length > 0) {
+            shape.append("|ids:").append(ids.length);
+            queryParameters.addAll(Arrays.asList(ids));
+        }
+        for (String column : inputTypeMap.keySet()) {
+            final Object value = config.tenancyFunction(action, databaseName, table, column);
+            if (value != null) {
+                shape.append("|tenancy:").append(column);
+                queryParameters.add(value);
             }
+        }
+        if (seekCursor != null) {
+            shape.append("|seek:").append(seekCursor.getShape());
+            seekCursor.addParameters(queryParameters);
+        }
+        if (page != null) {
+            shape.append("|page:").append(orderMap.get(table));
+            dialect.addPageParameters(queryParameters, page[0], page[1], databaseMajorVersion);
+        }
+        return shape.toString();
+    }
 
-            if (oracle) {
-                SQL sqlRowNum = SELECT("rownum as rownumid", "t.*")
-                        .FROM(sql).keyword("t");
-
-                SQL sqlFilter = SELECT("*").FROM(sqlRowNum);
-                int begin = offset + 1;
-                int end = limit + offset;
-                sqlFilter.keyword(String.format("WHERE rownumid BETWEEN %d AND %d", begin, end));
-                map.put("sql", sqlFilter);
-            }
+    /**
+     * Filter shape for the parseFilters() result: column, operator and number of
+     * values.
+     *
+     * @param filter          filter parameter
+     * @param queryParameters collected parameter values
+     * @return filter shape or null for filters that are not cached (spatial,
+     * invalid ones)
+     */
+    private String getFilterShape(String filter, List<Object> queryParameters) {
+        String[] splitCommands = filter.split(",", 3);
+        if (splitCommands.length < 3 || !typeMap.containsKey(splitCommands[0])
+                || isGeometryObject(splitCommands[0])) {
+            return null;
+        }
+        String parameter = splitCommands[1];
+        String value = splitCommands[2];
+        String shape = String.format("%s,%s", splitCommands[0], parameter);
+        switch (parameter) {
+            case "eq":
+            case "neq":
+            case "lt":
+            case "ngt":
+            case "le":
+            case "gt":
+            case "ge":
+            case "nlt":
+                queryParameters.add(value);
+                break;
+            case "sw":
+                queryParameters.add(String.format("%s%%", value));
+                break;
+            case "cs":
+                queryParameters.add(String.format("%%%s%%", value));
+                break;
+            case "ew":
+                queryParameters.add(String.format("%%%s", value));
+                break;
+            case "bt":
+            case "nbt":
+                if (!value.contains(",")) {
+                    return null;
+                }
+                queryParameters.addAll(Arrays.asList(value.split(",", 2)));
+                break;
+            case "in":
+            case "nin":
+                final String[] values = value.split(",");
+                queryParameters.addAll(Arrays.asList(values));
+                shape = String.format("%s,%d", shape, values.length);
+                break;
+            case "is":
+            case "nis":
+                shape = filter;
+                break;
+            default:
+                return null;
         }
-        return map;
+        return shape;
     }
 
     private List<String> applyOrder(SQL sql, String table) {
@@ -627,18 +1103,37 @@ public class RequestHandler {
     }
 
     private LinkedList<Map<String, Object>> processJsonObjectResults(
-            ResultSet rs, PrintWriter writer, Collection<String> columns, TableMeta tableMeta,
+            ResultSet rs, PrintWriter writer, List<String> selectedColumns, Collection<String> columns, TableMeta tableMeta,
             Map<String, Set<Object>> collectIds, Map.Entry<String, String> relation) throws SQLException {
+        final LinkedList<Map<String, Object>> records = new LinkedList<>();
+        readJsonObjectResults(rs, selectedColumns, columns, tableMeta, collectIds, seekCursor, null, records);
+        return processJsonObjectResults(records, writer, tableMeta, collectIds, relation);
+    }
+
+    private void readJsonObjectResults(ResultSet rs, List<String> selectedColumns, Collection<String> columns,
+                                       TableMeta tableMeta, Map<String, Set<Object>> collectIds,
+                                       SeekCursor cursor, ChunkOrder chunkOrder, List<Map<String, Object>> records)
+            throws SQLException {
         for (String key : tableMeta.getRelatedTableKeys()) {
             if (!collectIds.containsKey(key)) {
                 collectIds.put(key, new HashSet<>());
             }
         }
-        final LinkedList<Map<String, Object>> records = new LinkedList<>();
+        ColumnReader[] readers = null;
         while (rs.next()) {
+            if (readers == null) {
+                readers = getColumnReaders(rs, selectedColumns, columns);
+            }
+            if (cursor != null) {
+                cursor.read(rs);
+            }
+            if (chunkOrder != null) {
+                chunkOrder.read(rs);
+            }
             Map<String, Object> row = new LinkedHashMap<>();
+            int i = 0;
             for (String colName : columns) {
-                Object value = parseValue(colName, rs);
+                Object value = readers[i++].read(rs);
                 row.put(colName.substring(tableMeta.getName().length() + 1), value);
                 if (collectIds.containsKey(colName)) {
                     collectIds.get(colName).add(value);
@@ -646,7 +1141,11 @@ public class RequestHandler {
             }
             records.add(row);
         }
+    }
 
+    private LinkedList<Map<String, Object>> processJsonObjectResults(
+            LinkedList<Map<String, Object>> records, PrintWriter writer, TableMeta tableMeta,
+            Map<String, Set<Object>> collectIds, Map.Entry<String, String> relation) throws SQLException {
         if (!records.isEmpty()) {
             for (TableMeta subTableMeta : tableMeta.getReferencedTables().values()) {
                 String table = subTableMeta.getName();
@@ -662,28 +1161,50 @@ public class RequestHandler {
                 } else {
                     ids = new HashSet<>();
                 }
-                final SQL sql = SELECT(columnsList.toArray(new String[columnsList.size()])).FROM(table);
-                if (!ids.isEmpty() && subRelation != null) {
-                    sql.WHERE(subRelation.getKey()).IN(ids.toArray());
+                final LinkedList<Map<String, Object>> relatedRecords = new LinkedList<>();
+                final List<Object[]> inLists = ids.isEmpty() || subRelation == null
+                        ? Collections.<Object[]>singletonList(null)
+                        : getInLists(ids, subRelation.getKey());
+                final ChunkOrder chunkOrder = getChunkOrder(link, table, inLists);
+                final List<String> selectList = chunkOrder == null ? columnsList : chunkOrder.getSelectList(columnsList);
+                for (Object[] inList : inLists) {
+                    final SQL sql = SELECT(selectList.toArray(new String[selectList.size()])).FROM(table);
+                    if (inList != null) {
+                        applyInValues(link, sql.WHERE(subRelation.getKey()), subRelation.getKey(), inList);
+                    }
+                    applyOrder(sql, table);
+                    try (PreparedStatement statement = prepareReadStatement(sql.build());
+                         ResultSet resultSet = statement.executeQuery()) {
+                        readJsonObjectResults(resultSet, selectList, columnsList, subTableMeta, collectIds, null,
+                                chunkOrder, relatedRecords);
+                    }
                 }
-                applyOrder(sql, table);
-                try (ResultSet resultSet = prepareStatement(sql).executeQuery()) {
-                    LinkedList<Map<String, Object>> relatedRecords = processJsonObjectResults(
-                            resultSet, writer, columnsList, subTableMeta, collectIds, subRelation);
-                    if (subRelation == null) {
-                        writer.write(","); //list non-related table objects sequentially
-                    } else {
-                        for (Map<String, Object> record : records) {
-                            LinkedList<Map<String, Object>> filtered = new LinkedList<>();
-                            for (Map<String, Object> relatedRecord : relatedRecords) {
-                                String left = getShortId(subRelation, tableMeta.getName());
-                                final String right = getShortId(subRelation, table);
-                                if (Objects.equals(record.get(left), relatedRecord.get(right))) {
-                                    filtered.add(relatedRecord);
-                                }
-                            }
-                            record.put(table, filtered);
+                if (chunkOrder != null) {
+                    final List<Map<String, Object>> merged = chunkOrder.sort(relatedRecords);
+                    relatedRecords.clear();
+                    relatedRecords.addAll(merged);
+                }
+                processJsonObjectResults(relatedRecords, writer, subTableMeta, collectIds, subRelation);
+                if (subRelation == null) {
+                    writer.write(","); //list non-related table objects sequentially
+                } else {
+                    final String left = getShortId(subRelation, tableMeta.getName());
+                    final String right = getShortId(subRelation, table);
+                    //index related records by join key once, then attach them to their parents
+                    Map<Object, List<Map<String, Object>>> relatedIndex = new HashMap<>();
+                    for (Map<String, Object> relatedRecord : relatedRecords) {
+                        final Object key = getJoinKey(relatedRecord.get(right));
+                        List<Map<String, Object>> related = relatedIndex.get(key);
+                        if (related == null) {
+                            related = new ArrayList<>();
+                            relatedIndex.put(key, related);
                         }
+                        related.add(relatedRecord);
+                    }
+                    for (Map<String, Object> record : records) {
+                        final List<Map<String, Object>> related = relatedIndex.get(getJoinKey(record.get(left)));
+                        record.put(table, related == null
+                                ? new LinkedList<Map<String, Object>>() : new LinkedList<>(related));
                     }
                 }
             }
@@ -695,6 +1216,123 @@ public class RequestHandler {
         return records;
     }
 
+    /**
+     * Splits collected key values to IN lists of at most
+     * {@link ApiConfig#getMaxInListSize()} values. The last list is padded to a
+     * power of two size by repeating its last value, so only a few distinct
+     * statements are prepared. PostgreSQL binds integer and text keys as one
+     * array. Results of ordered tables are merged by {@link ChunkOrder}.
+     *
+     * @param values key values
+     * @param column fully-qualified key column
+     * @return IN lists
+     */
+    private List<Object[]> getInLists(Collection<Object> values, String column) {
+        final Object[] allValues = values.toArray();
+        if (getArrayType(column, allValues) != null) {
+            return Collections.singletonList(allValues);
+        }
+        final int maxSize = Math.max(1, config.getMaxInListSize());
+        List<Object[]> result = new ArrayList<>();
+        for (int start = 0; start < allValues.length; start += maxSize) {
+            final int size = Math.min(maxSize, allValues.length - start);
+            int bucketSize = Math.min(maxSize, Integer.highestOneBit(size));
+            if (bucketSize < size) {
+                bucketSize = Math.min(maxSize, bucketSize << 1);
+            }
+            final Object[] inList = Arrays.copyOfRange(allValues, start, start + bucketSize);
+            Arrays.fill(inList, size, bucketSize, allValues[start + size - 1]);
+            result.add(inList);
+        }
+        return result;
+    }
+
+    /**
+     * Returns merge order of an ordered table read in several IN list chunks,
+     * the order of each query is not global
+     *
+     * @param connection connection of the queries
+     * @param table      included table
+     * @param inLists    IN list chunks
+     * @return merge order or null if the results need no merging
+     * @throws SQLException on database error
+     */
+    private ChunkOrder getChunkOrder(Connection connection, String table, List<Object[]> inLists) throws SQLException {
+        final List<String> orders = orderMap.get(table);
+        if (orders == null || inLists.size() < 2) {
+            return null;
+        }
+        final DatabaseMetaData metaData = connection.getMetaData();
+        final ChunkOrder chunkOrder = new ChunkOrder(metaData.nullsAreSortedAtStart(),
+                metaData.nullsAreSortedAtEnd(), metaData.nullsAreSortedHigh());
+        for (String order : orders) {
+            final String[] parts = order.trim().split("\\s+");
+            final String column = parts[0].contains(".") ? parts[0] : String.format("%s.%s", table, parts[0]);
+            if (!typeMap.containsKey(column)) {
+                throw new IllegalArgumentException("Invalid order: " + order);
+            }
+            chunkOrder.addColumn(column, parts.length > 1 && "desc".equalsIgnoreCase(parts[1]));
+        }
+        return chunkOrder;
+    }
+
+    /**
+     * Appends IN (...) condition, or = ANY(?) with single array parameter on PostgreSQL
+     *
+     * @param connection connection used to create the array
+     * @param sql        query after the key column
+     * @param column     fully-qualified key column
+     * @param values     key values
+     * @throws SQLException if the array can't be created
+     */
+    private void applyInValues(Connection connection, SQL sql, String column, Object[] values) throws SQLException {
+        final String arrayType = getArrayType(column, values);
+        if (arrayType == null) {
+            sql.IN(values);
+        } else {
+            if ("int8".equals(arrayType)) {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = values[i] == null ? null : ((Number) values[i]).longValue();
+                }
+            }
+            sql.keyword("= ANY").openParen().VALUE(connection.createArrayOf(arrayType, values)).closeParen();
+        }
+    }
+
+    /**
+     * Returns PostgreSQL array type of the key column, if the values match it
+     *
+     * @param column fully-qualified key column
+     * @param values key values
+     * @return array type or null if values can't be bound as array
+     */
+    private String getArrayType(String column, Object[] values) {
+        final TableMeta tableMeta = tableMetaMap.get(getTableName(column));
+        final String arrayType = tableMeta == null || values.length == 0
+                ? null : dialect.getArrayType(tableMeta.getColumnTypes().get(column));
+        if (arrayType != null) {
+            for (Object value : values) {
+                if (value != null && !("int8".equals(arrayType) ? value instanceof Number : value instanceof String)) {
+                    return null;
+                }
+            }
+        }
+        return arrayType;
+    }
+
+    /**
+     * Normalizes key values, so integer keys read as different types still match
+     *
+     * @param value key value
+     * @return Long for integer types, otherwise the value
+     */
+    private static Object getJoinKey(Object value) {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        return value;
+    }
+
     private String getShortId(Map.Entry<String, String> relation, String tableName) {
         String id = null;
         tableName = String.format("%s.", tableName);
@@ -706,23 +1344,63 @@ public class RequestHandler {
         return id;
     }
 
-    private void streamJsonObjectResults(ResultSet rs, PrintWriter writer, TableMeta tableMeta)
+    /**
+     * Writes records as JSON objects straight from the result set
+     *
+     * @param rs              query results
+     * @param writer          response writer
+     * @param selectedColumns columns in the select list order
+     * @param tableMeta       table of the results
+     * @param asArray         wraps the objects in JSON array
+     * @throws SQLException           on database error
+     * @throws ClassNotFoundException if requested ids are not found
+     */
+    private void streamJsonObjectResults(ResultSet rs, PrintWriter writer, List<String> selectedColumns,
+                                         TableMeta tableMeta, boolean asArray)
             throws SQLException, ClassNotFoundException {
-        String separator = "";
-        Collection<String> columns = getColumnsList(tableMeta.getName());
-        while (rs.next()) {
-            writer.write(separator);
-            Map<String, Object> values = new LinkedHashMap<>();
-            for (String colName : columns) {
-                Object value = parseValue(colName, rs);
-                values.put(colName.substring(tableMeta.getName().length() + 1), value);
+        boolean isEmpty = true;
+        final String prefix = tableMeta.getName() + ".";
+        final List<String> columns = getColumnsList(tableMeta.getName());
+        final String[] names = new String[columns.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = columns.get(i).substring(prefix.length());
+        }
+        ColumnReader[] readers = null;
+        try {
+            final JsonWriter out = new JsonWriter(writer);
+            if (asArray) {
+                out.beginArray();
+            }
+            int rows = 0;
+            while (rs.next()) {
+                checkProgress(writer, ++rows);
+                if (readers == null) {
+                    readers = getColumnReaders(rs, selectedColumns, columns);
+                }
+                if (seekCursor != null) {
+                    seekCursor.read(rs);
+                }
+                if (!isEmpty && !asArray) {
+                    writer.write(",");
+                    out.setLenient(true); //allows next top-level value
+                }
+                out.beginObject();
+                for (int i = 0; i < readers.length; i++) {
+                    out.name(names[i]);
+                    readers[i].write(rs, out, gson);
+                }
+                out.endObject();
+                out.setLenient(false);
+                isEmpty = false;
             }
-            final String json = gson.toJson(values);
-            writer.write(json);
-            separator = ",";
+            if (asArray) {
+                out.endArray();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
         }
         final String[] ids = parameters.get(ID_KEY);
-        if (separator.isEmpty() && ids != null && ids.length > 0) {
+        if (isEmpty && ids != null && ids.length > 0) {
             throw new ClassNotFoundException("object");
         }
     }
@@ -737,255 +1415,198 @@ public class RequestHandler {
         return type.toUpperCase().endsWith(" UNSIGNED");
     }
 
-    private Object parseValue(String fullName, ResultSet rs) throws SQLException {
-        Object value;
-        final String BINARY = "_binary_", TIME = "_time_";
-        String colName = fullName.substring(fullName.lastIndexOf(".") + 1);
-        try {
-            rs.findColumn(colName);
-        } catch (SQLException ignored) {
-            colName = fullName;
-        }
+    /**
+     * Returns upper-cased column type, used for value conversion
+     *
+     * @param fullName column name
+     * @return column type or null for missing column type (foreign column or system object)
+     */
+    private String getValueType(String fullName) {
         //POSTGRES JDBC driver returns lower-cased types
         String type = typeMap.get(fullName);
-        if (type == null) return null; //Missing column type (foreign column or system object)
+        if (type == null) return null;
         type = type.toUpperCase();
         if (isBinaryColumn(fullName, typeMap)) {
-            type = BINARY;
+            type = ColumnReader.BINARY;
         } else if (isTimeColumn(fullName, typeMap)) {
-            type = TIME;
+            type = ColumnReader.TIME;
         } else if (isUnsignedType(type)) {
             type = type.split(" ")[0];
         }
+        return type;
+    }
 
-        switch (type) {
-            case "GEOMETRY":         //this type is included in tests as ST_AsText(value)
-                value = rs.getString(colName.replace(".", "_"));
-                if (value != null) {
-                    value = ((String) value).replace("POINT ", "POINT"); //fix MsSQL representation
+    /**
+     * Creates value readers of the selected columns. Values are read by ordinal
+     * position in the select list, columns missing in it are resolved by label
+     * once per query.
+     *
+     * @param rs              query results
+     * @param selectedColumns fully-qualified column names in the select list order
+     * @param columns         fully-qualified names of the columns to read
+     * @return column readers in the order of the columns
+     * @throws SQLException if a column is missing or its type is not supported
+     */
+    private ColumnReader[] getColumnReaders(ResultSet rs, List<String> selectedColumns, Collection<String> columns)
+            throws SQLException {
+        final ColumnReader[] readers = new ColumnReader[columns.size()];
+        int i = 0;
+        for (String fullName : columns) {
+            final String type = getValueType(fullName);
+            int index = 0;
+            if (type != null) {
+                index = selectedColumns.indexOf(fullName) + 1;
+                if (index == 0) {
+                    index = findColumn(rs, fullName, type);
                 }
-                break;
-            case "MDSYS.SDO_GEOMETRY":
-                //todo implement Oracle spatial object conversion to text
-                //NOTE: not possible for Oracle XE - https://stackoverflow.com/questions/44832223/oracle-converting-sdo-geometry-to-wkt
-                value = rs.getString(colName);
-                break;
-            case "JSON":
-            case "CLOB":
-                final String strValue = rs.getString(colName);
-                try {
-                    value = gson.fromJson(strValue, JsonElement.class);
-                } catch (JsonParseException ignored) {
-                    value = strValue;       //non-JSON content returned as String
-                }
-                break;
-            case "XML":
-                Document doc;
-                final String xmlContents = rs.getNString(colName);
-                try {
-                    doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xmlContents.getBytes()));
-                    value = parseXmlObject(doc.getDocumentElement());
-                } catch (SAXException | IOException | ParserConfigurationException e) {
-                    value = gson.fromJson(xmlContents, JsonElement.class);
-                }
-                break;
-            case "CHARACTER":
-            case "TEXT":
-            case "MEDIUMTEXT":
-            case "VARCHAR":
-            case "VARCHAR2":
-            case "NVARCHAR":
-            case "LONGVARCHAR":
-            case "NUMBER":          //Oracle's mixed type
-            case "DECIMAL":         //this type is included as string in tests
-            case "NUMERIC":         //this type is included as string in tests
-                value = rs.getString(colName);
-                if ("NUMERIC".equals(type) || "NUMBER".equals(type)) {
-                    //special case: some integer values defined in tests
-                    boolean isInteger = value != null && ((String) value).indexOf('.') < 0;
-                    if (isInteger) {
-                        value = rs.getLong(colName);
-                    }
-                }
-                break;
-//            case "NUMERIC":         //this type is included as string in tests
-//                value = new BigDecimal(rs.getString(colName));
-//                break;
-            case "BIT":
-                value = rs.getBoolean(colName);
-                break;
-            case "TINYINT":
-            case "SMALLINT":
-            case "INTEGER":
-            case "INT":
-            case "INT4":
-            case "INT2":
-            case "SERIAL":
-                value = rs.getInt(colName);
-                break;
-            case "BIGINT":
-            case "INT8":
-                value = rs.getLong(colName);
-                break;
-            case "REAL":
-                if (rs.getString(colName).contains(".")) {
-                    value = rs.getFloat(colName);
-                } else {
-                    value = rs.getInt(colName);
-                }
-                break;
-            case "FLOAT":
-            case "DOUBLE":
-            case "DOUBLE PRECISION":
-//            case "NUMBER":
-                value = rs.getDouble(colName);
-                break;
-            case BINARY:
-                final byte[] bytes = rs.getBytes(colName);
-                value = bytes != null ? Base64.encodeToString(bytes, Base64.DEFAULT).trim() : null;
-                break;
-            case TIME:
-                final String ts = rs.getString(colName);
-                if (ts != null && ts.length() > 19) {
-                    value = ts.substring(0, 19);      //treat all date types as String
-                } else {
-                    value = ts;
-                }
-                break;
-            default:
-                throw new SQLException("Type not implemented: " + type);
+            }
+            readers[i++] = ColumnReader.create(type, index, gson);
         }
-        return value;
+        return readers;
     }
 
-    private JsonElement parseXmlObject(Node node) {
-        JsonElement result = JsonNull.INSTANCE;
-        Node type = node.getAttributes().getNamedItem("type");
-        final NodeList childNodes = node.getChildNodes();
-        switch (type.getNodeValue()) {
-            case "object":
-                final JsonObject jsonObject = new JsonObject();
-                for (int i = 0; i < childNodes.getLength(); i++) {
-                    final Node item = childNodes.item(i);
-                    final JsonElement jsonElement = parseXmlObject(item);
-                    jsonObject.add(item.getNodeName(), jsonElement);
-                }
-                result = jsonObject;
-                break;
-            case "array":
-                final JsonArray jsonElements = new JsonArray();
-                for (int i = 0; i < childNodes.getLength(); i++) {
-                    final Node item = childNodes.item(i);
-                    final JsonElement jsonElement = parseXmlObject(item);
-                    jsonElements.add(jsonElement);
-                }
-                result = jsonElements;
-                break;
-            case "boolean":
-                result = new JsonPrimitive("true".equalsIgnoreCase(node.getTextContent()));
-                break;
-            case "number":
-                String nodeValue = node.getTextContent();
-                if (nodeValue != null) {
-                    final Double aDouble = Double.valueOf(nodeValue);
-                    result = aDouble == aDouble.longValue()
-                            ? new JsonPrimitive(aDouble.longValue()) : new JsonPrimitive(aDouble);
-                }
-                break;
-            case "string":
-                nodeValue = node.getTextContent();
-                if (nodeValue != null) {
-                    result = new JsonPrimitive(nodeValue);
-                }
-                break;
-            case "null":
-                break;
-            default:
-                throw new UnsupportedOperationException("Type not implemented: " + type);
+    private int findColumn(ResultSet rs, String fullName, String type) throws SQLException {
+        String colName = fullName.substring(fullName.lastIndexOf(".") + 1);
+        try {
+            rs.findColumn(colName);
+        } catch (SQLException ignored) {
+            colName = fullName;
         }
-        return result;
+        if ("GEOMETRY".equals(type)) {
+            colName = colName.replace(".", "_");
+        }
+        return rs.findColumn(colName);
+    }
+
+    private PreparedStatement prepareStatement(Breakdown breakdown) throws SQLException {
+        return bindParameters(dialect.prepareUpdate(link, breakdown.getSql(), idColumn), breakdown);
+    }
+
+    /**
+     * Prepares forward-only, read-only query without generated keys. Callers
+     * must close the statement (not only its result set), otherwise
+     * server-side cursors stay open until the pooled connection is recycled.
+     *
+     * @param breakdown query with parameters
+     * @return prepared statement
+     * @throws SQLException on database error
+     */
+    private PreparedStatement prepareReadStatement(Breakdown breakdown) throws SQLException {
+        return prepareReadStatement(link, breakdown);
     }
 
-    private PreparedStatement prepareStatement(SQL sql) throws SQLException {
-        Breakdown breakdown = sql.build();
-        PreparedStatement statement;
-        if (isReadOnly() && config.isPSQL()) {
-            statement = link.prepareStatement(breakdown.getSql());
-        } else if (config.isOracle()) {
-            String[] pks = {};
-            if (this.idColumn != null) {
-                pks = new String[]{this.idColumn.split("\\.")[1]};
+    private PreparedStatement prepareReadStatement(Connection connection, Breakdown breakdown) throws SQLException {
+        final PreparedStatement statement = connection.prepareStatement(breakdown.getSql(),
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        if (fetchSize > 0) {
+            try {
+                statement.setFetchSize(fetchSize);
+            } catch (SQLException e) {
+                statement.close();
+                throw e;
             }
-            statement = link.prepareStatement(breakdown.getSql(), pks);
-        } else {
-            statement = link.prepareStatement(breakdown.getSql(), Statement.RETURN_GENERATED_KEYS);
         }
-        List<Object> convertedList = new ArrayList<>();
-        int i = 0;
-        for (Object param : breakdown.getParameters()) {
-            Object converted = convertToObject(param);
-            if (converted != null) {
-                if ((converted instanceof Map) || (converted instanceof List)) {
-                    if (config.isMsSQL()) {
-                        final SQLXML sqlxml = getSqlxmlObject(converted);
-                        statement.setObject(++i, sqlxml);
+        return bindParameters(statement, breakdown);
+    }
+
+    private PreparedStatement bindParameters(PreparedStatement statement, Breakdown breakdown) throws SQLException {
+        try {
+            applyQueryTimeout(statement);
+            cancellation.register(statement);
+            List<Object> convertedList = new ArrayList<>();
+            int i = 0;
+            for (Object param : breakdown.getParameters()) {
+                if (param instanceof SeekValue) {
+                    ((SeekValue) param).bind(statement, ++i);
+                    convertedList.add(param);
+                    continue;
+                }
+                Object converted = convertToObject(param);
+                if (converted != null) {
+                    if ((converted instanceof Map) || (converted instanceof List)) {
+                        statement.setObject(++i, dialect.getJsonParameter(statement.getConnection(), converted, gson));
                     } else {
-                        statement.setObject(++i, gson.toJson(converted));
+                        statement.setObject(++i, converted);
                     }
                 } else {
-                    statement.setObject(++i, converted);
+                    statement.setNull(++i, Types.BINARY); //ms sql caprice again...
                 }
-            } else {
-                statement.setNull(++i, Types.BINARY); //ms sql caprice again...
+                convertedList.add(converted);
             }
-            convertedList.add(converted);
-        }
-        if (DEBUG_SQL) {
-            LOGR.log(Level.INFO, String.format("%s with params: %s", breakdown.getSql(), gson.toJson(convertedList)));
+            if (DEBUG_SQL) {
+                LOGR.log(Level.INFO, String.format("%s with params: %s", breakdown.getSql(), gson.toJson(convertedList)));
+            }
+        } catch (SQLException | RuntimeException ex) {
+            statement.close();
+            throw ex;
         }
         return statement;
     }
 
-    private SQLXML getSqlxmlObject(Object converted) throws SQLException {
-        final SQLXML sqlxml = link.createSQLXML();
-        final JSON json = JSONSerializer.toJSON(converted);
-        String xml;
-        if (json.isEmpty()) {
-            xml = "<root type=\"object\"/>";
-        } else {
-            final XMLSerializer xmlSerializer = new XMLSerializer();
-            xmlSerializer.setRootName("root");
-            xml = xmlSerializer.write(json);
-            //remove first line <?xml version="1.0" encoding="utf-8"?>\r\n<root>...</root>
-            xml = xml.replaceFirst(".*\r\n<root>(.*)", "<root type=\"object\">$1").trim();
-            xml = xml.replace("class=\"", "type=\"");
-        }
-        sqlxml.setString(xml);
-        return sqlxml;
-    }
-
     private Integer getResultCount(Connection link, String order, String table) throws SQLException {
+        final ApiConfig.ResultCount mode = config.getResultCountMode(databaseName, table);
+        if (mode == ApiConfig.ResultCount.NONE) {
+            return null;
+        }
         String id = order.contains(" ") ? order.substring(0, order.lastIndexOf(' ')) : order;
 
         SQL sql = SELECT(String.format("count(%s)", id)).FROM(table);
-        applyFilters(sql, table, parameters.get(ID_KEY));
-        final Breakdown breakdown = sql.build();
-        final String query = breakdown.getSql();
-        Integer count = null;
-        try (PreparedStatement statement = link.prepareStatement(query)) {
-            for (int i = 0; i < breakdown.getParameters().length; i++) {
-                Object o = convertToObject(breakdown.getParameters()[i]);
-                statement.setObject(i + 1, o);
+        final boolean hasFilters = applyFilters(sql, table, parameters.get(ID_KEY));
+        if (mode == ApiConfig.ResultCount.ESTIMATED && !hasFilters) {
+            final Integer estimate = getEstimatedCount(link, table);
+            if (estimate != null) {
+                return estimate;
             }
-            try (ResultSet rs = statement.executeQuery()) {
-                if (rs.next()) {
-                    count = rs.getInt(1);
-                }
+        }
+        final Breakdown query = sql.build();
+        final ResultCountCache countCache = config.getResultCountCache();
+        final boolean isCached = mode != ApiConfig.ResultCount.EXACT;
+        final String key = isCached ? query.getSql() + Arrays.toString(query.getParameters()) : null;
+        final long version = countCache.getVersion(table);
+        Integer count = isCached ? countCache.get(table, key) : null;
+        if (count != null) {
+            return count;
+        }
+        try (PreparedStatement statement = prepareReadStatement(link, query);
+             ResultSet rs = statement.executeQuery()) {
+            if (rs.next()) {
+                count = rs.getInt(1);
             }
         }
+        if (isCached && count != null) {
+            countCache.put(table, key, version, count, config.getResultCountTimeToLive());
+        }
         return count;
     }
 
+    /**
+     * Row count estimate of the table from the database statistics
+     *
+     * @param link  database connection
+     * @param table table name
+     * @return estimated count or null if the database has no positive estimate
+     * @throws SQLException on database error
+     */
+    private Integer getEstimatedCount(Connection link, String table) throws SQLException {
+        final String sql = dialect.getEstimatedCountSql();
+        if (sql == null) {
+            return null;
+        }
+        final LinkedList<Object> parameters = new LinkedList<>();
+        parameters.add(table);
+        try (PreparedStatement statement = prepareReadStatement(link, new Breakdown(sql, parameters));
+             ResultSet rs = statement.executeQuery()) {
+            if (rs.next()) {
+                final long estimate = rs.getLong(1);
+                //tables which were never analyzed report 0 (-1 on PostgreSQL 14+), so they are counted
+                if (!rs.wasNull() && estimate > 0) {
+                    return (int) Math.min(estimate, Integer.MAX_VALUE);
+                }
+            }
+        }
+        return null;
+    }
+
     private Object convertToObject(Object param) {
         Object result = param;
         if (param instanceof String) {
@@ -1101,48 +1722,36 @@ public class RequestHandler {
     }
 
     private String getGeometryFromText(String command, String column, String value) {
-        final boolean msSQL = config.isMsSQL();
-        final boolean oracle = config.isOracle();
-        String filter;
+        String function;
         switch (command) {
             case "swi":
-                filter = msSQL ? "%s.STWithin(%s)" : "ST_Within(%s, %s)";
+                function = "Within";
                 break;
             case "sco":
-                filter = msSQL ? "%s.STContains(%s)" : "ST_Contains(%s, %s)";
+                function = "Contains";
                 break;
             case "scr":
-                filter = msSQL ? "%s.STCrosses(%s)" : "ST_Crosses(%s, %s)";
+                function = "Crosses";
                 break;
             case "sdi":
-                filter = msSQL ? "%s.STDisjoint(%s)" : "ST_Disjoint(%s, %s)";
+                function = "Disjoint";
                 break;
             case "seq":
-                filter = msSQL ? "%s.STEquals(%s)" : "ST_Equals(%s, %s)";
+                function = "Equals";
                 break;
             case "sin":
-                filter = msSQL ? "%s.STIntersects(%s)" : "ST_Intersects(%s, %s)";
+                function = "Intersects";
                 break;
             case "sov":
-                filter = msSQL ? "%s.STOverlaps(%s)" : "ST_Overlaps(%s, %s)";
+                function = "Overlaps";
                 break;
             case "sto":
-                filter = msSQL ? "%s.STTouches(%s)" : "ST_Touches(%s, %s)";
+                function = "Touches";
                 break;
             default:
                 throw new IllegalArgumentException("Command not implemented: " + command);
         }
-
-        String valueFormat = "ST_GeomFromText('%s')";
-        if (msSQL) {
-            valueFormat = "geometry::STGeomFromText('%s',0)";
-        }
-        if (oracle) {
-            valueFormat = "SDO_GEOMETRY('%s')";
-        }
-
-        final String valueCmd = String.format(valueFormat, value);
-        return String.format(filter, column, valueCmd);
+        return dialect.getSpatialFilter(function, column, dialect.getGeometryFromText(value));
     }
 
     private void addNextCondition(SQL sql, String column, boolean satisfyAny, boolean isNextCondition) {
@@ -1174,6 +1783,7 @@ public class RequestHandler {
         String[] ids = parameters.get(ID_KEY);
         Map<String, Object> input = new LinkedHashMap<>();
         List<SQL> batch = new ArrayList<>();
+        boolean withJsonRows = false;
         SQL sql = null;
         if (!parameters.isEmpty() && !isJsonContent) {
 //            process x-www-form-urlencoded data
@@ -1182,41 +1792,21 @@ public class RequestHandler {
                     input.put(key, convertToObject(parameters.get(key)[0]));
                 }
             }
-        } else if (root != null && root.isJsonObject()) {
+        } else if (jsonObject != null) {
 //            process json data - single object
-            final Type jsonType = new TypeToken<Map<String, Object>>() {
-            }.getType();
-            input = gson.fromJson(root, jsonType);
+            input = jsonObject;
         } else if (isJsonContent && !isReadOnly()) {
-//           process multiple row data
-            @SuppressWarnings("unchecked")
-            List<Map<String, Object>> list = gson.fromJson(root, LinkedList.class);
-            final Iterator<Map<String, Object>> it = list.iterator();
-            final Iterator<String> idsIterator = ids != null ? Arrays.asList(ids).iterator() : null;
-            if (!it.hasNext()) {
+//           process multiple row data - streamed within the transaction
+            if (jsonRows == null) {
                 throw new ClassNotFoundException("input");
             }
-            if (ids != null && ids.length != list.size()) {
-                throw new ClassNotFoundException("subject");
-            }
-            while (it.hasNext()) {
-                action = config.before(action, databaseName, table, ids, input);
-                sql = prepareSql(columnsList);
-                final Map<String, Object> next = it.next();
-                if (next.isEmpty()) {
-                    throw new ClassNotFoundException("input");
-                }
-                parseInput(sql, next, inputTypeMap);
-                final String id = idsIterator != null && idsIterator.hasNext() ? idsIterator.next() : null;
-                applyFilters(sql, table, id);
-                batch.add(sql);
-            }
+            withJsonRows = true;
         }
         action = config.before(action, databaseName, table, ids, input);
         if (isReadOnly()) {
             doReadonlyActions(writer, columnsList, ids);
         } else {
-            if (batch.isEmpty()) {
+            if (batch.isEmpty() && !withJsonRows) {
                 try {
                     if (ids == null) {
                         ids = new String[]{null};
@@ -1238,7 +1828,7 @@ public class RequestHandler {
             if (action == HEADERS) {
                 writer.write("[\"Access-Control-Allow-Headers: Content-Type, X-XSRF-TOKEN\",\"Access-Control-Allow-Methods: OPTIONS, GET, PUT, POST, DELETE, PATCH\",\"Access-Control-Allow-Credentials: true\",\"Access-Control-Max-Age: 1728000\"]");
             } else {
-                if (batch.isEmpty()) {
+                if (batch.isEmpty() && !withJsonRows) {
                     if (sql == null) {
                         throw new IllegalArgumentException("Invalid input data: " + input);
                     }
@@ -1248,18 +1838,31 @@ public class RequestHandler {
                 link.setAutoCommit(false);
                 try {
                     List<Object> results = new ArrayList<>();
-                    for (SQL nextSql : batch) {
-                        try (PreparedStatement statement = prepareStatement(nextSql)) {
-                            statement.execute();
-                            if (isCreateAction()) {
-                                results.addAll(getGeneratedKeys(statement));
-                            } else {
-                                int updateCount = statement.getUpdateCount();
-                                results.add(updateCount);
+                    if (withJsonRows) {
+                        executeJsonRows(columnsList, ids, input, results);
+                    } else {
+                        List<Breakdown> queries = new ArrayList<>();
+                        for (SQL nextSql : batch) {
+                            queries.add(nextSql.build());
+                        }
+                        //consecutive rows with the same SQL share one statement
+                        int start = 0;
+                        while (start < queries.size()) {
+                            final String query = queries.get(start).getSql();
+                            int end = start + 1;
+                            while (end < queries.size() && query.equals(queries.get(end).getSql())) {
+                                end++;
                             }
+                            results.addAll(executeUpdates(queries.subList(start, end)));
+                            start = end;
                         }
                     }
                     link.commit();
+                    config.getResultCountCache().invalidate(table);
+                    if (config.hasReplicas()) {
+                        //before the results, which may commit the response
+                        addPrimaryCookie(resp, config);
+                    }
                     writer.write(results.size() == 1 ? gson.toJson(results.get(0)) : gson.toJson(results));
                 } catch (SQLException ex) {
                     link.rollback();
@@ -1273,6 +1876,9 @@ public class RequestHandler {
                     } else {
                         throw ex;
                     }
+                } catch (ClassNotFoundException | RuntimeException ex) {
+                    link.rollback();
+                    throw ex;
                 } finally {
                     link.setAutoCommit(true);
                 }
@@ -1280,11 +1886,104 @@ public class RequestHandler {
         }
     }
 
+    /**
+     * Reads JSON array rows one at a time and sends them to the database in
+     * batches, so memory usage doesn't depend on the input size.
+     *
+     * @param columnsList table columns
+     * @param ids         ids of updated rows or null
+     * @param input       input passed to ApiConfig.before()
+     * @param results     generated keys or update counts
+     * @throws SQLException           on database error
+     * @throws ClassNotFoundException on invalid input or ids count mismatch
+     */
+    private void executeJsonRows(List<String> columnsList, String[] ids, Map<String, Object> input, List<Object> results)
+            throws SQLException, ClassNotFoundException {
+        final Iterator<String> idsIterator = ids != null ? Arrays.asList(ids).iterator() : null;
+        final List<Breakdown> queries = new ArrayList<>();
+        int rows = 0;
+        try {
+            while (jsonRows.hasNext()) {
+                action = config.before(action, databaseName, table, ids, input);
+                final SQL sql = prepareSql(columnsList);
+                final Map<String, Object> next = gson.fromJson(jsonRows, JSON_ROW_TYPE);
+                if (next == null || next.isEmpty()) {
+                    throw new ClassNotFoundException("input");
+                }
+                parseInput(sql, next, inputTypeMap);
+                String id = null;
+                if (idsIterator != null) {
+                    if (!idsIterator.hasNext()) {
+                        throw new ClassNotFoundException("subject");
+                    }
+                    id = idsIterator.next();
+                }
+                applyFilters(sql, table, id);
+                final Breakdown query = sql.build();
+                //consecutive rows with the same SQL share one statement
+                if (!queries.isEmpty() && (queries.size() >= INPUT_BATCH_SIZE
+                        || !query.getSql().equals(queries.get(0).getSql()))) {
+                    results.addAll(executeUpdates(queries));
+                    queries.clear();
+                }
+                queries.add(query);
+                rows++;
+            }
+            jsonRows.endArray();
+        } catch (IOException | JsonParseException e) {
+            throw new ClassNotFoundException("input");
+        }
+        if (rows == 0) {
+            throw new ClassNotFoundException("input");
+        }
+        if (idsIterator != null && idsIterator.hasNext()) {
+            throw new ClassNotFoundException("subject");
+        }
+        if (!queries.isEmpty()) {
+            results.addAll(executeUpdates(queries));
+        }
+    }
+
     private void doReadonlyActions(PrintWriter writer, List<String> columnsList, String... ids) throws SQLException, ClassNotFoundException {
-        SQL sql = prepareSql(columnsList);
+        //pages are small, cursors would only add round trips
+        final boolean isPaged = req.getParameter("page") != null || req.getParameter("seek") != null;
+        fetchSize = action == LIST && !isPaged ? config.getFetchSize(databaseName, table) : 0;
+        final boolean isCursorRead = beginCursorRead(link);
+        try {
+            doReadonlyQueries(writer, columnsList, ids);
+        } finally {
+            endCursorRead(link, isCursorRead);
+        }
+    }
+
+    /**
+     * Starts read-only transaction if the driver streams results with fetch
+     * size only outside autocommit mode (PostgreSQL)
+     *
+     * @param connection read connection
+     * @return true if the transaction was started
+     * @throws SQLException on database error
+     */
+    private boolean beginCursorRead(Connection connection) throws SQLException {
+        if (fetchSize > 0 && dialect.hasTransactionalCursors() && connection.getAutoCommit()) {
+            connection.setAutoCommit(false);
+            return true;
+        }
+        return false;
+    }
+
+    private void endCursorRead(Connection connection, boolean isStarted) throws SQLException {
+        if (isStarted) {
+            //read-only transaction, nothing to commit
+            connection.rollback();
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private void doReadonlyQueries(PrintWriter writer, List<String> columnsList, String... ids) throws SQLException, ClassNotFoundException {
         Map<String, Set<Object>> collectIds = new HashMap<>();
         final boolean hasIncludedTables = !includeTables.isEmpty();
-        findTableRelations(tableMetaMap, collectIds);
+        findTableRelations(collectIds);
         //add primary + foreign keys from related tables
         for (String fqColumnName : collectIds.keySet()) {
             final String tableName = getTableName(fqColumnName);
@@ -1293,43 +1992,52 @@ public class RequestHandler {
         }
         for (String t : includeTables) {
             //add unrelated tables to the output
-            final TableMeta mt = tableMetaMap.get(t);
-            tableMetaMap.get(table).addReferencedTable(mt);
+            final TableMeta mt = getTableMeta(t);
+            getTableMeta(table).addReferencedTable(mt);
         }
-        boolean hasFilters = applyFilters(sql, table, ids);
         Integer resultCount = null;
-        if (action == LIST) {
-            Map map = applyPaging(sql);
-            resultCount = (Integer) map.get("resultCount");
-            sql = (SQL) map.get("sql");
-        }
-        applyTenancyFilter(hasFilters, sql);
+        int[] page = null;
+        List<String> selectList = columnsList;
+        if (action == LIST && req.getParameter("seek") != null) {
+            seekCursor = getSeekCursor();
+            page = new int[]{seekCursor.size, 0};
+            selectList = seekCursor.getSelectList(columnsList);
+        } else if (action == LIST && req.getParameter("page") != null) {
+            page = getPage();
+            resultCount = getResultCount(link, orderMap.get(table).get(0), table);
+        }
+        final Breakdown query = getReadQuery(selectList, ids, page);
         final List<String> columnList = getColumnsList(table);
         if (parameters.containsKey(ID_KEY)) {
-            String preamble = parameters.get(ID_KEY).length > 1 ? "[" : "";
-            try (ResultSet rs = prepareStatement(sql).executeQuery()) {
-                writer.write(preamble);
-                streamJsonObjectResults(rs, writer, tableMetaMap.get(table));
-            }
-            if (!preamble.isEmpty()) {
-                writer.write("]");
+            try (PreparedStatement statement = prepareReadStatement(query);
+                 ResultSet rs = statement.executeQuery()) {
+                streamJsonObjectResults(rs, writer, columnsList, getTableMeta(table), parameters.get(ID_KEY).length > 1);
             }
         } else if (withTransform) {
-            try (ResultSet rs = prepareStatement(sql).executeQuery()) {
-                writer.write("{");
-                if (hasIncludedTables) {
-                    processJsonObjectResults(rs, writer, columnList, tableMetaMap.get(table), collectIds, null);
-                } else {
-                    writer.write(String.format("\"%s\":", table));
-                    writer.write("[");
-                    streamJsonObjectResults(rs, writer, tableMetaMap.get(table));
-                    writer.write("]");
+            final JoinNode joinTree = hasIncludedTables && page == null && isIncludeJoin()
+                    ? getJoinTree(getTableMeta(table), new HashSet<String>()) : null;
+            if (joinTree != null) {
+                streamJoinedResults(writer, joinTree, ids);
+            } else {
+                try (PreparedStatement statement = prepareReadStatement(query);
+                     ResultSet rs = statement.executeQuery()) {
+                    writer.write("{");
+                    if (hasIncludedTables) {
+                        processJsonObjectResults(rs, writer, columnsList, columnList, getTableMeta(table), collectIds, null);
+                    } else {
+                        writer.write(String.format("\"%s\":", table));
+                        streamJsonObjectResults(rs, writer, columnsList, getTableMeta(table), true);
+                    }
                 }
             }
+            if (seekCursor != null) {
+                writer.write(String.format(",\"next\":%s", gson.toJson(seekCursor.getNextToken())));
+            }
             writer.write("}");
         } else {
-            TableMeta topTable = tableMetaMap.get(table);
-            try (ResultSet rs = prepareStatement(sql).executeQuery()) {
+            TableMeta topTable = getTableMeta(table);
+            try (PreparedStatement statement = prepareReadStatement(query);
+                 ResultSet rs = statement.executeQuery()) {
                 writer.write("{");
                 streamRecords(writer, columnsList, collectIds, rs, resultCount, topTable);
             }
@@ -1338,20 +2046,130 @@ public class RequestHandler {
         }
     }
 
+    /**
+     * Returns true if included tables should be fetched with a single JOIN
+     * query. Request parameter join=1 or join=0 overrides the configuration.
+     *
+     * @return true for join mode
+     */
+    private boolean isIncludeJoin() {
+        final String join = req.getParameter("join");
+        if (join != null) {
+            return "1".equals(join);
+        }
+        return config.isIncludeJoinEnabled(databaseName, table);
+    }
+
+    /**
+     * Builds the include tree for join mode. Trees with unrelated tables, tables
+     * without selected primary key, repeated tables or tenancy filters can't be
+     * joined.
+     *
+     * @param tableMeta table of the node
+     * @param visited   tables in the tree
+     * @return tree node or null if the tree can't be joined
+     */
+    private JoinNode getJoinTree(TableMeta tableMeta, Set<String> visited) {
+        final String tableName = tableMeta.getName();
+        if (!visited.add(tableName)) {
+            return null;
+        }
+        if (tableName.equals(table)) {
+            for (String column : inputTypeMap.keySet()) {
+                if (config.tenancyFunction(action, databaseName, table, column) != null) {
+                    return null;
+                }
+            }
+        }
+        final JoinNode node = new JoinNode(tableMeta, getColumnsList(tableName));
+        for (TableMeta subTableMeta : tableMeta.getReferencedTables().values()) {
+            final Map.Entry<String, String> relation = subTableMeta.getRelation();
+            if (relation == null || !node.columns.contains(relation.getValue())) {
+                return null;
+            }
+            final JoinNode child = getJoinTree(subTableMeta, visited);
+            if (child == null) {
+                return null;
+            }
+            if (!child.columns.contains(relation.getKey())) {
+                child.columns.add(relation.getKey());
+            }
+            node.children.add(child);
+        }
+        final String primaryKey = tableMeta.getPrimaryKey();
+        node.idIndex = primaryKey == null ? -1 : node.columns.indexOf(primaryKey);
+        return node.idIndex < 0 ? null : node;
+    }
+
+    /**
+     * Fetches the requested table with all included tables by a single LEFT JOIN
+     * query and groups the joined rows in one pass. Output equals the output of
+     * processJsonObjectResults().
+     *
+     * @param writer response writer
+     * @param root   include tree
+     * @param ids    requested ids or null
+     * @throws SQLException on database error
+     */
+    private void streamJoinedResults(PrintWriter writer, JoinNode root, String[] ids) throws SQLException {
+        final List<String> selectedColumns = new ArrayList<>();
+        final List<String> selectList = new ArrayList<>();
+        final List<String> orders = new ArrayList<>();
+        final List<JoinNode> nodes = new ArrayList<>();
+        root.addTo(nodes);
+        for (JoinNode node : nodes) {
+            node.offset = selectedColumns.size();
+            selectedColumns.addAll(node.columns);
+            //included tables are selected with plain column names, same as separate queries
+            selectList.addAll(node == root ? Arrays.asList(getColumnsArray(node.columns)) : node.columns);
+            final List<String> nodeOrders = node == root ? null : orderMap.get(node.table);
+            if (nodeOrders == null) {
+                orders.add(node.columns.get(node.idIndex));
+            } else {
+                for (String order : nodeOrders) {
+                    orders.add(order.contains(".") ? order : String.format("%s.%s", node.table, order));
+                }
+            }
+        }
+        final SQL sql = SELECT(selectList.toArray(new String[selectList.size()])).FROM(table);
+        for (JoinNode node : nodes) {
+            if (node != root) {
+                final Map.Entry<String, String> relation = node.tableMeta.getRelation();
+                sql.LEFT_JOIN(node.table).ON(relation.getKey(), relation.getValue());
+            }
+        }
+        applyFilters(sql, table, ids);
+        sql.ORDER_BY(orders.toArray(new String[orders.size()]));
+
+        final LinkedList<Map<String, Object>> records = new LinkedList<>();
+        try (PreparedStatement statement = prepareReadStatement(sql.build());
+             ResultSet rs = statement.executeQuery()) {
+            ColumnReader[] readers = null;
+            while (rs.next()) {
+                if (readers == null) {
+                    readers = getColumnReaders(rs, selectedColumns, selectedColumns);
+                }
+                root.addRow(rs, readers, null, records);
+            }
+        }
+        writer.write("{");
+        writer.write(String.format("\"%s\":", table));
+        writer.write(gson.toJson(records));
+    }
+
     /**
      * Searches for relations between tables and removes related from include
      * list. Feeds collectIds with exported primary keys
      *
-     * @param tableMeta  table columns metadata map
      * @param collectIds map with sets of collected ids
      */
-    private void findTableRelations(Map<String, TableMeta> tableMeta, Map<String, Set<Object>> collectIds)
+    private void findTableRelations(Map<String, Set<Object>> collectIds)
             throws ClassNotFoundException {
         if (!includeTables.isEmpty()) {
             for (Iterator<String> iterator = includeTables.iterator(); iterator.hasNext(); ) {
                 String includeTable = iterator.next();
-                TableMeta cTable = tableMeta.get(includeTable);
-                TableMeta topTable = tableMeta.get(table);
+                TableMeta cTable = getTableMeta(includeTable);
+                TableMeta topTable = getTableMeta(table);
                 if (topTable.hasReferenceTo(includeTable) || cTable.hasReferenceTo(table)) {
                     topTable.addReferencedTable(cTable);
                     collectIds.put(cTable.getReferedToKey(), new HashSet<>());
@@ -1360,21 +2178,22 @@ public class RequestHandler {
                     //find intermediate tables
                     List<String> allTables = new ArrayList<>();
                     allTables.add(table);
-                    allTables.addAll(tableMeta.get(table).getReferencedTables().keySet());
+                    allTables.addAll(topTable.getReferencedTables().keySet());
                     allTables.addAll(includeTables);
                     for (int i = 0, allTablesSize = allTables.size(); i < allTablesSize; i++) {
                         String leftTable = allTables.get(i);
                         for (int j = i + 1; j < allTablesSize; j++) {
                             String rightTable = allTables.get(j);
-                            for (TableMeta ft : tableMeta.values()) {
-                                if (ft.isIntermediateFor(leftTable, rightTable)) {
-                                    final String imTable = ft.getName();
+                            for (TableMeta schemaTable : tableMetaMap.values()) {
+                                if (schemaTable.isIntermediateFor(leftTable, rightTable)) {
+                                    final String imTable = schemaTable.getName();
+                                    final TableMeta ft = getTableMeta(imTable);
                                     typeMap.putAll(getColumnTypesMap(imTable));
-                                    tableMeta.get(leftTable).addReferencedTable(ft);
+                                    getTableMeta(leftTable).addReferencedTable(ft);
                                     if (leftTable.equals(includeTable) || rightTable.equals(includeTable)) {
                                         iterator.remove();
                                     }
-                                    ft.addReferencedTable(tableMeta.get(includeTable));
+                                    ft.addReferencedTable(getTableMeta(includeTable));
                                     for (String idKey : ft.getForeignKeys()) {
                                         collectIds.put(idKey, new HashSet<>());
                                     }
@@ -1389,119 +2208,277 @@ public class RequestHandler {
     }
 
     private void streamRelatedTables(PrintWriter writer, Map<String, Set<Object>> collectIds, TableMeta tableMeta) throws SQLException {
+        final int parallelism = Math.min(config.getMaxParallelIncludes(), tableMeta.getReferencedTables().size());
+        final List<Connection> idleConnections = parallelism > 1
+                ? connections.openIdle(parallelism - 1) : Collections.<Connection>emptyList();
+        try {
+            if (idleConnections.isEmpty()) {
+                streamRelatedTables(link, writer, collectIds, tableMeta);
+            } else {
+                final BlockingQueue<Connection> branchConnections = new LinkedBlockingQueue<>(idleConnections);
+                branchConnections.add(link);
+                streamRelatedTablesParallel(writer, collectIds, tableMeta, branchConnections);
+            }
+        } finally {
+            for (Connection connection : idleConnections) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    LOGR.log(Level.FINE, "Cannot close connection", e);
+                }
+            }
+        }
+    }
+
+    private void streamRelatedTables(Connection connection, PrintWriter writer, Map<String, Set<Object>> collectIds,
+                                     TableMeta tableMeta) throws SQLException {
         for (TableMeta mt : tableMeta.getReferencedTables().values()) {
-            String table = mt.getName();
-            List<String> columnsList = getColumnsList(table);
-            final SQL sql = SELECT(columnsList.toArray(new String[columnsList.size()])).FROM(table);
-            boolean hasFilters = applyFilters(sql, table);
-            Map.Entry<String, String> relation = mt.getRelation();
-            if (relation != null && collectIds.containsKey(relation.getValue())) {
-                final String collectedIds = relation.getValue();
-                if (!collectedIds.isEmpty()) {
-                    if (hasFilters) {
-                        sql.AND(relation.getKey()).IN(collectIds.get(collectedIds).toArray());
-                    } else {
-                        sql.WHERE(relation.getKey()).IN(collectIds.get(collectedIds).toArray());
+            streamRelatedTable(connection, writer, collectIds, mt);
+        }
+    }
+
+    /**
+     * Fetches sibling included tables (with their own included tables) on the
+     * request connections, one branch per connection at once. Each branch is
+     * buffered and written in the original order, so the output is the same as
+     * the sequential one. Branches only read the keys collected from their
+     * parent table and fill the key sets of their own columns.
+     */
+    private void streamRelatedTablesParallel(PrintWriter writer, final Map<String, Set<Object>> collectIds,
+                                             TableMeta tableMeta, final BlockingQueue<Connection> branchConnections)
+            throws SQLException {
+        final int parallelism = branchConnections.size();
+        final List<Future<String>> branches = new ArrayList<>();
+        try {
+            for (final TableMeta mt : tableMeta.getReferencedTables().values()) {
+                //waits for a running branch to hand its connection back
+                final Connection connection = branchConnections.take();
+                final Callable<String> branch = new Callable<String>() {
+                    @Override
+                    public String call() throws SQLException {
+                        final StringWriter buffer = new StringWriter();
+                        try (PrintWriter branchWriter = new PrintWriter(buffer)) {
+                            final boolean isCursorRead = beginCursorRead(connection);
+                            try {
+                                streamRelatedTable(connection, branchWriter, collectIds, mt);
+                            } finally {
+                                endCursorRead(connection, isCursorRead);
+                            }
+                        } finally {
+                            branchConnections.add(connection);
+                        }
+                        return buffer.toString();
                     }
+                };
+                try {
+                    branches.add(INCLUDE_FETCHER.submit(branch));
+                } catch (RejectedExecutionException e) {
+                    final FutureTask<String> task = new FutureTask<>(branch);
+                    task.run();
+                    branches.add(task);
                 }
             }
-            applyOrder(sql, table);
-            try (ResultSet resultSet = prepareStatement(sql).executeQuery()) {
-                writer.write(",");
-                streamRecords(writer, columnsList, collectIds, resultSet, null, mt);
+            for (Future<String> branch : branches) {
+                writer.write(branch.get());
+                checkDisconnect(writer);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while fetching included tables", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
-            streamRelatedTables(writer, collectIds, mt);
+            throw new SQLException(cause);
+        } finally {
+            //running branches still use the connections, the request one included
+            awaitConnections(branchConnections, parallelism);
         }
     }
 
+    private static void awaitConnections(BlockingQueue<Connection> connections, int count) {
+        boolean isInterrupted = false;
+        final List<Connection> returned = new ArrayList<>(count);
+        while (returned.size() < count) {
+            try {
+                returned.add(connections.take());
+            } catch (InterruptedException e) {
+                isInterrupted = true;
+            }
+        }
+        connections.addAll(returned);
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void streamRelatedTable(Connection connection, PrintWriter writer, Map<String, Set<Object>> collectIds,
+                                    TableMeta mt) throws SQLException {
+        String table = mt.getName();
+        List<String> columnsList = getColumnsList(table);
+        Map.Entry<String, String> relation = mt.getRelation();
+        List<Object[]> inLists = Collections.singletonList(null);
+        if (relation != null && collectIds.containsKey(relation.getValue())) {
+            final String collectedIds = relation.getValue();
+            if (!collectedIds.isEmpty()) {
+                final Set<Object> ids = collectIds.get(collectedIds);
+                inLists = ids.isEmpty() ? Collections.singletonList(new Object[0])
+                        : getInLists(ids, relation.getKey());
+            }
+        }
+        final ChunkOrder chunkOrder = getChunkOrder(connection, table, inLists);
+        final List<String> selectList = chunkOrder == null ? columnsList : chunkOrder.getSelectList(columnsList);
+        final List<Breakdown> queries = new ArrayList<>();
+        for (Object[] inList : inLists) {
+            final SQL sql = SELECT(selectList.toArray(new String[selectList.size()])).FROM(table);
+            boolean hasFilters = applyFilters(sql, table);
+            if (inList != null) {
+                if (hasFilters) {
+                    applyInValues(connection, sql.AND(relation.getKey()), relation.getKey(), inList);
+                } else {
+                    applyInValues(connection, sql.WHERE(relation.getKey()), relation.getKey(), inList);
+                }
+            }
+            applyOrder(sql, table);
+            queries.add(sql.build());
+        }
+        try (PreparedStatement statement = prepareReadStatement(connection, queries.get(0));
+             ResultSet resultSet = statement.executeQuery()) {
+            writer.write(",");
+            streamRecords(connection, writer, columnsList, collectIds, resultSet, queries.subList(1, queries.size()),
+                    chunkOrder, null, mt);
+        }
+        streamRelatedTables(connection, writer, collectIds, mt);
+    }
+
     private void streamRecords(PrintWriter writer, List<String> columnsList, Map<String, Set<Object>> collectIds,
                                ResultSet rs, Integer resultCount, TableMeta tableMeta) throws SQLException {
+        streamRecords(link, writer, columnsList, collectIds, rs, Collections.<Breakdown>emptyList(), null, resultCount,
+                tableMeta);
+    }
+
+    /**
+     * Streams records of the result set, followed by records of the next queries
+     * (remaining IN list chunks). Chunks of ordered tables are read first and
+     * merged by the chunk order.
+     */
+    private void streamRecords(Connection connection, PrintWriter writer, List<String> columnsList,
+                               Map<String, Set<Object>> collectIds, ResultSet rs, List<Breakdown> nextQueries,
+                               ChunkOrder chunkOrder, Integer resultCount, TableMeta tableMeta)
+            throws SQLException {
         String relations = tableMeta.getRelationsJson();
-        writer.write(String.format("\"%s\":{%s\"columns\":%s,\"records\":[", tableMeta.getName(),
+        writer.write(String.format("\"%s\":{%s\"columns\":%s,\"records\":", tableMeta.getName(),
                 relations,
                 gson.toJson(filterTableColumns(tableMeta.getName(), columnsList))));
 
-        List<Object> row = new ArrayList<>();
-        while (rs.next()) {
-            if (!row.isEmpty()) {
-                writer.write(",");
-                row.clear();
-            }
-            for (String column : columnsList) {
-                final Object value = parseValue(column, rs);
-                row.add(value);
-                if (collectIds.containsKey(column)) {
-                    collectIds.get(column).add(value);
+        //collected key values by column position, null for other columns
+        final List<Set<Object>> collectedIds = new ArrayList<>();
+        for (String column : columnsList) {
+            collectedIds.add(collectIds.get(column));
+        }
+        final SeekCursor cursor = tableMeta.getName().equals(table) ? seekCursor : null;
+        try {
+            final JsonWriter out = new JsonWriter(writer);
+            out.beginArray();
+            if (chunkOrder == null) {
+                streamRecords(writer, out, columnsList, collectedIds, rs, cursor);
+                for (Breakdown query : nextQueries) {
+                    try (PreparedStatement statement = prepareReadStatement(connection, query);
+                         ResultSet nextRs = statement.executeQuery()) {
+                        streamRecords(writer, out, columnsList, collectedIds, nextRs, null);
+                    }
+                }
+            } else {
+                final List<Object[]> records = new ArrayList<>();
+                readRecords(writer, columnsList, collectedIds, rs, chunkOrder, records);
+                for (Breakdown query : nextQueries) {
+                    try (PreparedStatement statement = prepareReadStatement(connection, query);
+                         ResultSet nextRs = statement.executeQuery()) {
+                        readRecords(writer, columnsList, collectedIds, nextRs, chunkOrder, records);
+                    }
+                }
+                for (Object[] record : chunkOrder.sort(records)) {
+                    out.beginArray();
+                    for (Object value : record) {
+                        if (value == null) {
+                            out.nullValue();
+                        } else {
+                            gson.toJson(value, value.getClass(), out);
+                        }
+                    }
+                    out.endArray();
                 }
             }
-            writer.write(gson.toJson(row));
+            out.endArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        if (cursor != null) {
+            writer.write(String.format(",\"next\":%s", gson.toJson(cursor.getNextToken())));
         }
-        writer.write("]");
         if (resultCount != null) {
             writer.write(String.format(",\"results\":%d", resultCount));
         }
         writer.write("}");
     }
 
-    private String getCurrentSchema() throws SQLException {
-        String schemaPattern = null;
-        if (config.isOracle()) {
-            schemaPattern = this.link.getMetaData().getUserName();
-        }
-        if (config.isMsSQL()) {
-            schemaPattern = "dbo";
+    private void streamRecords(PrintWriter writer, JsonWriter out, List<String> columnsList,
+                               List<Set<Object>> collectedIds, ResultSet rs, SeekCursor cursor)
+            throws SQLException, IOException {
+        ColumnReader[] readers = null;
+        int rows = 0;
+        while (rs.next()) {
+            checkProgress(writer, ++rows);
+            if (readers == null) {
+                readers = getColumnReaders(rs, columnsList, columnsList);
+            }
+            if (cursor != null) {
+                cursor.read(rs);
+            }
+            out.beginArray();
+            for (int i = 0; i < readers.length; i++) {
+                final Set<Object> ids = collectedIds.get(i);
+                if (ids != null) {
+                    final Object value = readers[i].read(rs);
+                    ids.add(value);
+                    if (value == null) {
+                        out.nullValue();
+                    } else {
+                        gson.toJson(value, value.getClass(), out);
+                    }
+                } else {
+                    readers[i].write(rs, out, gson);
+                }
+            }
+            out.endArray();
         }
-        return schemaPattern;
     }
 
-    /**
-     * Returns map that contains metadata about every table's primary and
-     * foreign keys
-     *
-     * @return meta map
-     * @throws SQLException
-     */
-    private Map<String, TableMeta> getTableMetaMap() throws SQLException {
-        Map<String, TableMeta> tablesMap = ApiConfig.getCachedTableMeta();
-        if (tablesMap != null) {
-            return tablesMap;
-        }
-        tablesMap = new LinkedHashMap<>();
-
-        DatabaseMetaData md = link.getMetaData();
-        quoteString = md.getIdentifierQuoteString();
-        String schemaPattern = getCurrentSchema();
-
-        try (ResultSet tables = md.getTables(databaseName, schemaPattern,
-                "%", new String[]{"TABLE", "VIEW"})) {
-            while (tables.next()) {
-                final String jdbcTableName = tables.getString("TABLE_NAME");
-                final String table = getNativeCaseName(jdbcTableName);
-                if (!tablesMap.containsKey(table)) {
-                    tablesMap.put(table, new TableMeta(table));
-                }
-                try (ResultSet rs = md.getImportedKeys(null, schemaPattern, jdbcTableName)) {
-                    while (rs.next()) {
-                        final String pkTable = getNativeCaseName(rs.getString("PKTABLE_NAME"));
-                        final String pkColumn = getNativeCaseName(rs.getString("PKCOLUMN_NAME"));
-                        final String fkTable = getNativeCaseName(rs.getString("FKTABLE_NAME"));
-                        final String fkColumn = getNativeCaseName(rs.getString("FKCOLUMN_NAME"));
-                        tablesMap.get(table).addForeignKeys(pkTable, pkColumn, fkTable, fkColumn);
-                    }
-                }
-                try (ResultSet rs = md.getPrimaryKeys(null, schemaPattern, jdbcTableName)) {
-                    if (rs.next()) {
-                        final String column = rs.getString("COLUMN_NAME");
-                        tablesMap.get(table).setPrimaryKey(getNativeCaseName(column));
-                    }
+    private void readRecords(PrintWriter writer, List<String> columnsList, List<Set<Object>> collectedIds,
+                             ResultSet rs, ChunkOrder chunkOrder, List<Object[]> records) throws SQLException {
+        ColumnReader[] readers = null;
+        int rows = 0;
+        while (rs.next()) {
+            checkProgress(writer, ++rows);
+            if (readers == null) {
+                readers = getColumnReaders(rs, columnsList, columnsList);
+            }
+            chunkOrder.read(rs);
+            final Object[] record = new Object[readers.length];
+            for (int i = 0; i < readers.length; i++) {
+                record[i] = readers[i].read(rs);
+                if (collectedIds.get(i) != null) {
+                    collectedIds.get(i).add(record[i]);
                 }
             }
+            records.add(record);
         }
-        ApiConfig.setCachedTableMeta(tablesMap);
-        return tablesMap;
     }
 
-    private void applyTenancyFilter(boolean hasFilters, SQL sql) {
+    private boolean applyTenancyFilter(boolean hasFilters, SQL sql) {
         //apply tenancy filter
         for (String column : inputTypeMap.keySet()) {
             final Object value = config.tenancyFunction(action, databaseName, table, column);
@@ -1514,6 +2491,7 @@ public class RequestHandler {
                 }
             }
         }
+        return hasFilters;
     }
 
     private SQL prepareSql(List<String> columnsList) {
@@ -1549,20 +2527,111 @@ public class RequestHandler {
         for (int i = 0; i < result.length; i++) {
             String column = columnsList.get(i);
             if (isGeometryObject(column)) {
-                //
-                if (config.isMsSQL()) {
-                    result[i] = String.format("%s.STAsText() as %s", column, column.replace(".", "_"));
-                } else if (config.isOracle()) {
-                    result[i] = column;
+                result[i] = dialect.selectGeometry(column);
+            } else {
+                result[i] = column;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Executes rows with the same SQL using a single prepared statement. Rows
+     * are sent as JDBC batch, unless the driver can't return generated keys of
+     * batched inserts.
+     *
+     * @param queries rows with the same SQL
+     * @return generated keys (CREATE) or update counts
+     * @throws SQLException on database error
+     */
+    private List<Object> executeUpdates(List<Breakdown> queries) throws SQLException {
+        if (isCreateAction() && queries.size() > 1 && config.getMultiRowInsertSize() > 1
+                && dialect.getMaxBindParameters() > 0) {
+            return executeMultiRowInserts(queries);
+        }
+        List<Object> results = new ArrayList<>();
+        final boolean isBatch = queries.size() > 1 && config.isBatchUpdateEnabled()
+                && (isCreateAction() ? dialect.hasBatchGeneratedKeys() : dialect.hasBatchUpdateCounts());
+        try (PreparedStatement statement = prepareStatement(queries.get(0))) {
+            for (int i = 0; i < queries.size(); i++) {
+                if (i > 0) {
+                    statement.clearParameters();
+                    bindParameters(statement, queries.get(i));
+                }
+                if (isBatch) {
+                    statement.addBatch();
+                } else {
+                    statement.execute();
+                    if (isCreateAction()) {
+                        results.addAll(getGeneratedKeys(statement));
+                    } else {
+                        results.add(statement.getUpdateCount());
+                    }
+                }
+            }
+            if (isBatch) {
+                final int[] updateCounts = statement.executeBatch();
+                if (isCreateAction()) {
+                    results.addAll(getGeneratedKeys(statement));
                 } else {
-                    result[i] = String.format("ST_asText(%s) as %s", column, column.replace(".", "_"));
+                    for (int updateCount : updateCounts) {
+                        results.add(updateCount);
+                    }
                 }
+            }
+        }
+        return results;
+    }
 
+    /**
+     * Executes inserts with the same SQL as chunked multi-row statements:
+     * <code>INSERT INTO t (cols) VALUES (...),(...),...</code>
+     *
+     * @param queries rows with the same SQL
+     * @return generated keys of all rows
+     * @throws SQLException on database error
+     */
+    private List<Object> executeMultiRowInserts(List<Breakdown> queries) throws SQLException {
+        List<Object> results = new ArrayList<>();
+        final int rowParameters = Math.max(1, queries.get(0).getParameters().length);
+        final int chunkSize = Math.max(1, Math.min(config.getMultiRowInsertSize(),
+                dialect.getMaxBindParameters() / rowParameters));
+        for (int start = 0; start < queries.size(); start += chunkSize) {
+            final List<Breakdown> chunk = queries.subList(start, Math.min(start + chunkSize, queries.size()));
+            final Breakdown query = getMultiRowInsert(chunk);
+            if (dialect.getMultiRowInsertReturning() != null) {
+                try (PreparedStatement statement = bindParameters(link.prepareStatement(query.getSql()), query);
+                     ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        results.add(rs.getObject(1));
+                    }
+                }
             } else {
-                result[i] = column;
+                try (PreparedStatement statement = prepareStatement(query)) {
+                    statement.execute();
+                    results.addAll(getGeneratedKeys(statement));
+                }
             }
         }
-        return result;
+        return results;
+    }
+
+    private Breakdown getMultiRowInsert(List<Breakdown> queries) {
+        final String sql = queries.get(0).getSql();
+        final String values = sql.substring(sql.lastIndexOf("VALUES") + "VALUES".length());
+        final StringBuilder multiRowSql = new StringBuilder(sql);
+        final LinkedList<Object> parameters = new LinkedList<>();
+        for (int i = 0; i < queries.size(); i++) {
+            if (i > 0) {
+                multiRowSql.append(',').append(values);
+            }
+            parameters.addAll(Arrays.asList(queries.get(i).getParameters()));
+        }
+        final String returning = dialect.getMultiRowInsertReturning();
+        if (returning != null) {
+            multiRowSql.append(" RETURNING ").append(returning);
+        }
+        return new Breakdown(multiRowSql.toString(), parameters);
     }
 
     private List<Object> getGeneratedKeys(PreparedStatement statement) throws SQLException {
@@ -1605,14 +2674,7 @@ public class RequestHandler {
                 if (action == INCREMENT) {
                     sql.FIELD(entry.getKey()).EQUAL().FIELD(entry.getKey()).keyword("+").VALUE(entry.getValue());
                 } else if (isGeometryObject(entry.getKey())) {
-                    if (config.isMsSQL()) {
-                        sql.FIELD(entry.getKey()).EQUAL().keyword("geometry::STGeomFromText")
-                                .openParen().VALUE(entry.getValue()).comma().VALUE(0).closeParen();
-                    } else if (config.isOracle()) {
-                        sql.FIELD(entry.getKey()).EQUAL().keyword("SDO_GEOMETRY").openParen().VALUE(entry.getValue()).closeParen();
-                    } else {
-                        sql.FIELD(entry.getKey()).EQUAL().keyword("ST_GeomFromText").openParen().VALUE(entry.getValue()).closeParen();
-                    }
+                    dialect.appendGeometry(sql.FIELD(entry.getKey()).EQUAL(), entry.getValue());
                 } else {
                     sql.FIELD(entry.getKey()).EQUAL(entry.getValue());
                 }
@@ -1660,7 +2722,7 @@ public class RequestHandler {
                 throw new NumberFormatException((String) validatorResult);
             }
             //special case: Postgres
-            if (isTimeColumn(key, typeMap) && (config.isPSQL() || config.isOracle())) {
+            if (isTimeColumn(key, typeMap) && dialect.hasTypedTimeParameters()) {
                 final String strValue = (String) value;
                 try {
                     if (strValue.matches("\\d{4}-\\d\\d-\\d\\d")) {
@@ -1756,8 +2818,510 @@ public class RequestHandler {
         return isGeometry;
     }
 
+    /**
+     * Thrown when writing the response has failed, usually because the client
+     * has disconnected. Unwinding closes the open cursors and the connection.
+     */
+    private static class ClientAbortException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ClientAbortException() {
+            super("Client disconnected");
+        }
+    }
+
+    /**
+     * Keyset (seek) page: rows after the token values in the order of the
+     * columns, so deep pages don't scan and discard the preceding rows. The
+     * condition is expanded to <code>(a &gt; ?) OR (a = ? AND b &gt; ?) ...</code>, which
+     * works with mixed directions on all databases. Order columns must not
+     * contain NULL values, a NULL in the last row of a page fails the request.
+     */
+    private static class SeekCursor {
+        private final int size;
+        private final boolean hasTypedTime;
+        private final List<String> columns = new ArrayList<>();
+        private final List<Boolean> descending = new ArrayList<>();
+        //values of the last row of the previous page, null for the first page
+        private SeekValue[] after;
+        //positions of the columns in the select list
+        private int[] ordinals;
+        private SeekValue[] last;
+        private int rows;
+
+        SeekCursor(int size, boolean hasTypedTime) {
+            if (size <= 0) {
+                throw new IllegalArgumentException("Invalid seek size: " + size);
+            }
+            this.size = size;
+            this.hasTypedTime = hasTypedTime;
+        }
+
+        void addColumn(String column, boolean isDescending) {
+            columns.add(column);
+            descending.add(isDescending);
+        }
+
+        /**
+         * Decodes the values of the token, a JSON array of [type, value] pairs
+         */
+        void setToken(String token) {
+            try {
+                final String json = new String(Base64.decode(token, Base64.URL_SAFE), StandardCharsets.UTF_8);
+                final JsonArray pairs = new JsonParser().parse(json).getAsJsonArray();
+                if (pairs.size() == columns.size()) {
+                    after = new SeekValue[pairs.size()];
+                    for (int i = 0; i < after.length; i++) {
+                        final JsonArray pair = pairs.get(i).getAsJsonArray();
+                        after[i] = new SeekValue(pair.get(0).getAsInt(), pair.get(1).getAsString());
+                    }
+                }
+            } catch (RuntimeException e) {
+                //malformed JSON, value or type
+                after = null;
+            }
+            if (after == null) {
+                throw new IllegalArgumentException("Invalid seek token: " + token);
+            }
+        }
+
+        /**
+         * Selected columns followed by the order columns which are not selected
+         */
+        List<String> getSelectList(List<String> columnsList) {
+            List<String> selectList = new ArrayList<>(columnsList);
+            ordinals = new int[columns.size()];
+            for (int i = 0; i < ordinals.length; i++) {
+                final String column = columns.get(i);
+                if (!selectList.contains(column)) {
+                    selectList.add(column);
+                }
+                ordinals[i] = selectList.indexOf(column) + 1;
+            }
+            return selectList;
+        }
+
+        String getShape() {
+            return String.format("%s%s%s", columns, descending, after != null ? ":after" : "");
+        }
+
+        void addParameters(List<Object> queryParameters) {
+            if (after != null) {
+                for (int i = 0; i < after.length; i++) {
+                    queryParameters.addAll(Arrays.asList(after).subList(0, i + 1));
+                }
+            }
+        }
+
+        void applyTo(SQL sql, boolean hasFilters) {
+            if (after != null) {
+                if (hasFilters) {
+                    sql.AND();
+                } else {
+                    sql.WHERE();
+                }
+                sql.openParen();
+                for (int i = 0; i < after.length; i++) {
+                    if (i > 0) {
+                        sql.keyword("OR");
+                    }
+                    sql.openParen();
+                    for (int j = 0; j < i; j++) {
+                        sql.FIELD(columns.get(j)).EQUAL(after[j]).AND();
+                    }
+                    sql.FIELD(columns.get(i));
+                    if (descending.get(i)) {
+                        sql.LESS_THAN(after[i]);
+                    } else {
+                        sql.GREATER_THAN(after[i]);
+                    }
+                    sql.closeParen();
+                }
+                sql.closeParen();
+            }
+            String[] orders = new String[columns.size()];
+            for (int i = 0; i < orders.length; i++) {
+                orders[i] = descending.get(i) ? columns.get(i) + " DESC" : columns.get(i);
+            }
+            sql.ORDER_BY(orders);
+        }
+
+        /**
+         * Counts the rows of the page, keeps the values of the last one
+         *
+         * @throws IllegalArgumentException if an order column of the last row
+         *                                  is NULL, the next page can't start after it
+         */
+        void read(ResultSet rs) throws SQLException {
+            if (++rows == size) {
+                final ResultSetMetaData metaData = rs.getMetaData();
+                last = new SeekValue[ordinals.length];
+                for (int i = 0; i < ordinals.length; i++) {
+                    last[i] = SeekValue.read(rs, ordinals[i], metaData.getColumnType(ordinals[i]), hasTypedTime);
+                    if (last[i] == null) {
+                        throw new IllegalArgumentException(String.format("Seek order column %s is NULL", columns.get(i)));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Token of the next page or null if this page is the last one
+         */
+        String getNextToken() {
+            if (last == null) {
+                return null;
+            }
+            final List<Object[]> pairs = new ArrayList<>(last.length);
+            for (SeekValue value : last) {
+                pairs.add(new Object[]{value.type, value.text});
+            }
+            final byte[] json = gson.toJson(pairs).getBytes(StandardCharsets.UTF_8);
+            return Base64.encodeToString(json, Base64.URL_SAFE | Base64.NO_WRAP | Base64.NO_PADDING);
+        }
+    }
+
+    /**
+     * Order of an included table read in several IN list chunks. Each query is
+     * ordered by the database, the records of all chunks are merged by the
+     * order column values, NULLs placed like the driver reports.
+     */
+    private static class ChunkOrder {
+        private final boolean isNullFirst;
+        private final boolean isNullLast;
+        private final boolean isNullHigh;
+        private final List<String> columns = new ArrayList<>();
+        private final List<Boolean> descending = new ArrayList<>();
+        //positions of the columns in the select list
+        private int[] ordinals;
+        //order column values of the records read so far
+        private final List<Object[]> keys = new ArrayList<>();
+
+        ChunkOrder(boolean isNullFirst, boolean isNullLast, boolean isNullHigh) {
+            this.isNullFirst = isNullFirst;
+            this.isNullLast = isNullLast;
+            this.isNullHigh = isNullHigh;
+        }
+
+        void addColumn(String column, boolean isDescending) {
+            columns.add(column);
+            descending.add(isDescending);
+        }
+
+        /**
+         * Selected columns followed by the order columns which are not selected
+         */
+        List<String> getSelectList(List<String> columnsList) {
+            List<String> selectList = new ArrayList<>(columnsList);
+            ordinals = new int[columns.size()];
+            for (int i = 0; i < ordinals.length; i++) {
+                final String column = columns.get(i);
+                if (!selectList.contains(column)) {
+                    selectList.add(column);
+                }
+                ordinals[i] = selectList.indexOf(column) + 1;
+            }
+            return selectList;
+        }
+
+        /**
+         * Keeps the order column values of the current row
+         */
+        void read(ResultSet rs) throws SQLException {
+            final Object[] key = new Object[ordinals.length];
+            for (int i = 0; i < ordinals.length; i++) {
+                key[i] = rs.getObject(ordinals[i]);
+            }
+            keys.add(key);
+        }
+
+        /**
+         * Merges the records read so far, records of equal keys keep the chunk order
+         *
+         * @param records records in the order they were read
+         * @return merged records
+         */
+        <T> List<T> sort(List<T> records) {
+            final List<T> read = new ArrayList<>(records);
+            final List<Integer> positions = new ArrayList<>(read.size());
+            for (int i = 0; i < read.size(); i++) {
+                positions.add(i);
+            }
+            Collections.sort(positions, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer left, Integer right) {
+                    return compareKeys(keys.get(left), keys.get(right));
+                }
+            });
+            final List<T> result = new ArrayList<>(read.size());
+            for (Integer position : positions) {
+                result.add(read.get(position));
+            }
+            keys.clear();
+            return result;
+        }
+
+        private int compareKeys(Object[] left, Object[] right) {
+            for (int i = 0; i < left.length; i++) {
+                final int result = compareValues(left[i], right[i], descending.get(i));
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        private int compareValues(Object left, Object right, boolean isDescending) {
+            if (left == null || right == null) {
+                if (left == right) {
+                    return 0;
+                }
+                if (isNullFirst || isNullLast) {
+                    return (left == null) == isNullFirst ? -1 : 1;
+                }
+                final int result = (left == null) == isNullHigh ? 1 : -1;
+                return isDescending ? -result : result;
+            }
+            final int result;
+            if (left instanceof Number && right instanceof Number && left.getClass() != right.getClass()) {
+                result = new BigDecimal(left.toString()).compareTo(new BigDecimal(right.toString()));
+            } else if (left instanceof Comparable && left.getClass() == right.getClass()) {
+                result = ((Comparable<Object>) left).compareTo(right);
+            } else {
+                result = left.toString().compareTo(right.toString());
+            }
+            return isDescending ? -result : result;
+        }
+    }
+
+    /**
+     * Order column value of a seek token with the JDBC type it is bound with,
+     * so the database compares it like the column value it was read from.
+     */
+    private static class SeekValue {
+        private final int type;
+        private final String text;
+        //parsed text, bound with the setter of the type
+        private final Object value;
+
+        /**
+         * @throws IllegalArgumentException if the text doesn't match the type
+         */
+        SeekValue(int type, String text) {
+            this.type = type;
+            this.text = text;
+            switch (type) {
+                case Types.BIGINT:
+                    this.value = new BigInteger(text);
+                    break;
+                case Types.DECIMAL:
+                    this.value = new BigDecimal(text);
+                    break;
+                case Types.REAL:
+                    this.value = Float.valueOf(text);
+                    break;
+                case Types.DOUBLE:
+                    this.value = Double.valueOf(text);
+                    break;
+                case Types.BOOLEAN:
+                    this.value = Boolean.valueOf(text);
+                    break;
+                case Types.DATE:
+                    this.value = Date.valueOf(text);
+                    break;
+                case Types.TIME:
+                    this.value = Time.valueOf(text);
+                    break;
+                case Types.TIMESTAMP:
+                    this.value = Timestamp.valueOf(text);
+                    break;
+                default:
+                    this.value = text;
+            }
+        }
+
+        /**
+         * Reads the column value with the getter of its type
+         *
+         * @param columnType   JDBC type of the column
+         * @param hasTypedTime date and time values are bound as Date/Timestamp,
+         *                     otherwise as text
+         * @return value or null if the column is NULL
+         */
+        static SeekValue read(ResultSet rs, int ordinal, int columnType, boolean hasTypedTime) throws SQLException {
+            final int type;
+            final String text;
+            switch (columnType) {
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                case Types.BIGINT:
+                    type = Types.BIGINT;
+                    text = rs.getString(ordinal);
+                    break;
+                case Types.NUMERIC:
+                case Types.DECIMAL:
+                    final BigDecimal decimal = rs.getBigDecimal(ordinal);
+                    type = Types.DECIMAL;
+                    text = decimal == null ? null : decimal.toString();
+                    break;
+                case Types.REAL:
+                    final float real = rs.getFloat(ordinal);
+                    type = Types.REAL;
+                    text = rs.wasNull() ? null : Float.toString(real);
+                    break;
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                    final double number = rs.getDouble(ordinal);
+                    type = Types.DOUBLE;
+                    text = rs.wasNull() ? null : Double.toString(number);
+                    break;
+                case Types.BIT:
+                case Types.BOOLEAN:
+                    final boolean flag = rs.getBoolean(ordinal);
+                    type = Types.BOOLEAN;
+                    text = rs.wasNull() ? null : Boolean.toString(flag);
+                    break;
+                case Types.DATE:
+                case Types.TIME:
+                case Types.TIMESTAMP:
+                    if (hasTypedTime) {
+                        final Object time = columnType == Types.DATE ? rs.getDate(ordinal)
+                                : columnType == Types.TIME ? rs.getTime(ordinal) : rs.getTimestamp(ordinal);
+                        type = columnType;
+                        text = time == null ? null : time.toString();
+                    } else {
+                        type = Types.VARCHAR;
+                        text = rs.getString(ordinal);
+                    }
+                    break;
+                case Types.OTHER:
+                    //uuid and other driver specific types, bound as untyped text
+                    type = Types.OTHER;
+                    text = rs.getString(ordinal);
+                    break;
+                default:
+                    type = Types.VARCHAR;
+                    text = rs.getString(ordinal);
+            }
+            return text == null ? null : new SeekValue(type, text);
+        }
+
+        void bind(PreparedStatement statement, int index) throws SQLException {
+            switch (type) {
+                case Types.BIGINT:
+                    final BigInteger integer = (BigInteger) value;
+                    if (integer.bitLength() < Long.SIZE) {
+                        statement.setLong(index, integer.longValue());
+                    } else {
+                        statement.setBigDecimal(index, new BigDecimal(integer));
+                    }
+                    break;
+                case Types.DECIMAL:
+                    statement.setBigDecimal(index, (BigDecimal) value);
+                    break;
+                case Types.REAL:
+                    statement.setFloat(index, (Float) value);
+                    break;
+                case Types.DOUBLE:
+                    statement.setDouble(index, (Double) value);
+                    break;
+                case Types.BOOLEAN:
+                    statement.setBoolean(index, (Boolean) value);
+                    break;
+                case Types.DATE:
+                    statement.setDate(index, (Date) value);
+                    break;
+                case Types.TIME:
+                    statement.setTime(index, (Time) value);
+                    break;
+                case Types.TIMESTAMP:
+                    statement.setTimestamp(index, (Timestamp) value);
+                    break;
+                case Types.OTHER:
+                    statement.setObject(index, text, Types.OTHER);
+                    break;
+                default:
+                    statement.setString(index, text);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    /**
+     * Table in the include tree of join mode. Columns of the node are selected
+     * starting at offset, records are grouped by primary key per parent record.
+     */
+    private static class JoinNode {
+        private final TableMeta tableMeta;
+        private final String table;
+        private final List<String> columns;
+        private final List<JoinNode> children = new ArrayList<>();
+        //records by primary key, per parent record (null for the root)
+        private final Map<Map<String, Object>, Map<Object, Map<String, Object>>> records = new IdentityHashMap<>();
+        private int offset;
+        private int idIndex;
+
+        JoinNode(TableMeta tableMeta, List<String> columns) {
+            this.tableMeta = tableMeta;
+            this.table = tableMeta.getName();
+            this.columns = columns;
+        }
+
+        void addTo(List<JoinNode> nodes) {
+            nodes.add(this);
+            for (JoinNode child : children) {
+                child.addTo(nodes);
+            }
+        }
+
+        void addRow(ResultSet rs, ColumnReader[] readers, Map<String, Object> parent,
+                    List<Map<String, Object>> parentRecords) throws SQLException {
+            if (rs.getObject(offset + idIndex + 1) == null) {
+                return; //no joined record
+            }
+            final Object id = getJoinKey(readers[offset + idIndex].read(rs));
+            Map<Object, Map<String, Object>> parentIndex = records.get(parent);
+            if (parentIndex == null) {
+                parentIndex = new HashMap<>();
+                records.put(parent, parentIndex);
+            }
+            Map<String, Object> record = parentIndex.get(id);
+            if (record == null) {
+                record = new LinkedHashMap<>();
+                for (int i = 0; i < columns.size(); i++) {
+                    record.put(columns.get(i).substring(table.length() + 1), readers[offset + i].read(rs));
+                }
+                for (JoinNode child : children) {
+                    record.put(child.table, new LinkedList<Map<String, Object>>());
+                }
+                parentIndex.put(id, record);
+                parentRecords.add(record);
+            }
+            for (JoinNode child : children) {
+                @SuppressWarnings("unchecked")
+                final List<Map<String, Object>> childRecords = (List<Map<String, Object>>) record.get(child.table);
+                child.addRow(rs, readers, record, childRecords);
+            }
+        }
+    }
+
     public enum Actions {
-        LIST, CREATE, READ, UPDATE, DELETE, INCREMENT, HEADERS
+        LIST, CREATE, READ, UPDATE, DELETE, INCREMENT, HEADERS;
+
+        /**
+         * <p>isReadOnly.</p>
+         *
+         * @return true for actions which don't change data
+         */
+        public boolean isReadOnly() {
+            return this == LIST || this == READ || this == HEADERS;
+        }
     }
 
 }
@@ -0,0 +1,117 @@
+/*
+ *  Copyright (c) 2017. I.Kolchagov, All rights reserved.
+ *  Contact: I.Kolchagov (kolchagov (at) gmail.com)
+ *
+ *  The contents of this file is licensed under the terms of LGPLv3 license.
+ *  You may read the the included file 'lgpl-3.0.txt'
+ *  or https://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the License.
+ *
+ *  The project uses 'fluentsql' internally, licensed under Apache Public License v2.0.
+ *  https://github.com/ivanceras/fluentsql/blob/master/LICENSE.txt
+ *
+ */
+package eu.hadeco.crudapi;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exact result counts of paged LIST requests, keyed by the count query (table,
+ * filters and their values). Every table has a version, which is incremented
+ * after writes through this API, so counts loaded before the write can't be
+ * served after it. Entries expire after the configured time to live; the cache
+ * is bounded - it's cleared when full.
+ *
+ * @author ivankol
+ * @version $Id: $Id
+ */
+class ResultCountCache {
+    private static final int MAX_SIZE = 1024;
+    private final ConcurrentMap<String, AtomicLong> versions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Entry> counts = new ConcurrentHashMap<>();
+
+    /**
+     * Returns current version of the table. Read it before the count query and
+     * pass it to {@link #put(String, String, long, Integer, long)}.
+     *
+     * @param table table name
+     * @return table version
+     */
+    long getVersion(String table) {
+        final AtomicLong version = versions.get(table);
+        return version == null ? 0 : version.get();
+    }
+
+    /**
+     * <p>get.</p>
+     *
+     * @param table table name
+     * @param key   count query with parameters
+     * @return cached count or null
+     */
+    Integer get(String table, String key) {
+        final Entry entry = counts.get(key);
+        if (entry == null || entry.version != getVersion(table)
+                || entry.expiresAt < System.currentTimeMillis()) {
+            return null;
+        }
+        return entry.count;
+    }
+
+    /**
+     * <p>put.</p>
+     *
+     * @param table      table name
+     * @param key        count query with parameters
+     * @param version    table version read before the count query
+     * @param count      result count
+     * @param timeToLive time to live in milliseconds
+     */
+    void put(String table, String key, long version, Integer count, long timeToLive) {
+        if (counts.size() >= MAX_SIZE) {
+            counts.clear();
+        }
+        counts.put(key, new Entry(count, version, System.currentTimeMillis() + timeToLive));
+    }
+
+    /**
+     * Makes cached counts of the table unreachable, called after writes
+     *
+     * @param table table name
+     */
+    void invalidate(String table) {
+        AtomicLong version = versions.get(table);
+        if (version == null) {
+            final AtomicLong created = new AtomicLong();
+            version = versions.putIfAbsent(table, created);
+            if (version == null) {
+                version = created;
+            }
+        }
+        version.incrementAndGet();
+    }
+
+    /**
+     * Removes all cached counts
+     */
+    void clear() {
+        counts.clear();
+    }
+
+    private static final class Entry {
+        private final Integer count;
+        private final long version;
+        private final long expiresAt;
+
+        Entry(Integer count, long version, long expiresAt) {
+            this.count = count;
+            this.version = version;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
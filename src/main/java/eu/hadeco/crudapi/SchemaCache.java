@@ -0,0 +1,121 @@
+/*
+ *  Copyright (c) 2017. I.Kolchagov, All rights reserved.
+ *  Contact: I.Kolchagov (kolchagov (at) gmail.com)
+ *
+ *  The contents of this file is licensed under the terms of LGPLv3 license.
+ *  You may read the the included file 'lgpl-3.0.txt'
+ *  or https://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the License.
+ *
+ *  The project uses 'fluentsql' internally, licensed under Apache Public License v2.0.
+ *  https://github.com/ivanceras/fluentsql/blob/master/LICENSE.txt
+ *
+ */
+
+package eu.hadeco.crudapi;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Thread-safe schema metadata cache of a single {@link ApiConfig} (data source),
+ * so configurations of different databases don't overwrite each other's
+ * metadata. The first request loads the
+ * {@link SchemaSnapshot} synchronously (other requests wait for it), later
+ * requests always get the current snapshot without blocking. Expired snapshots
+ * are still served while a single background task reloads them
+ * (stale-while-revalidate).
+ *
+ * @author ivankol
+ * @version $Id: $Id
+ */
+class SchemaCache {
+    private static final Logger LOGR = Logger.getLogger(SchemaCache.class.getName());
+    private static final ExecutorService REFRESHER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "crud-api-schema-refresh");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final AtomicReference<SchemaSnapshot> snapshot = new AtomicReference<>();
+    private final AtomicBoolean isRefreshing = new AtomicBoolean();
+    private final AtomicLong versions = new AtomicLong();
+    private final Object loadLock = new Object();
+
+    /**
+     * Returns current schema snapshot. Blocks only if there is no snapshot yet.
+     *
+     * @param config api configuration, used for background refresh and time to live
+     * @param link   request connection, used for initial load
+     * @return current snapshot
+     * @throws SQLException if initial load failed
+     */
+    SchemaSnapshot get(ApiConfig config, Connection link) throws SQLException {
+        SchemaSnapshot current = snapshot.get();
+        if (current == null) {
+            synchronized (loadLock) {
+                current = snapshot.get();
+                if (current == null) {
+                    current = SchemaSnapshot.load(config, link, versions.incrementAndGet());
+                    snapshot.set(current);
+                }
+            }
+        } else if (current.isExpired(config.getSchemaCacheTimeToLive())) {
+            refresh(config, current);
+        }
+        return current;
+    }
+
+    /**
+     * Returns current schema snapshot without loading it
+     *
+     * @return current snapshot or null if it is not loaded yet
+     */
+    SchemaSnapshot peek() {
+        return snapshot.get();
+    }
+
+    private void refresh(final ApiConfig config, final SchemaSnapshot stale) {
+        if (!isRefreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            REFRESHER.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try (Connection link = config.getConnection()) {
+                        final SchemaSnapshot fresh = SchemaSnapshot.load(config, link, versions.incrementAndGet())
+                                .keepVersionOf(stale);
+                        //don't overwrite invalidated cache
+                        snapshot.compareAndSet(stale, fresh);
+                    } catch (SQLException | RuntimeException ex) {
+                        LOGR.log(Level.WARNING, "Schema refresh failed, serving stale metadata", ex);
+                        snapshot.compareAndSet(stale, stale.renew());
+                    } finally {
+                        isRefreshing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            isRefreshing.set(false);
+        }
+    }
+
+    /**
+     * Drops current snapshot, next request will load it again.
+     */
+    void invalidate() {
+        snapshot.set(null);
+    }
+}
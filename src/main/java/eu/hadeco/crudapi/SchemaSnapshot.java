@@ -0,0 +1,212 @@
+/*
+ *  Copyright (c) 2017. I.Kolchagov, All rights reserved.
+ *  Contact: I.Kolchagov (kolchagov (at) gmail.com)
+ *
+ *  The contents of this file is licensed under the terms of LGPLv3 license.
+ *  You may read the the included file 'lgpl-3.0.txt'
+ *  or https://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the License.
+ *
+ *  The project uses 'fluentsql' internally, licensed under Apache Public License v2.0.
+ *  https://github.com/ivanceras/fluentsql/blob/master/LICENSE.txt
+ *
+ */
+
+package eu.hadeco.crudapi;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Immutable, versioned snapshot of the database schema metadata: tables with
+ * their columns, primary and foreign keys. Published by {@link SchemaCache}
+ * and shared by all requests, so it must never be modified after loading.
+ *
+ * @author ivankol
+ * @version $Id: $Id
+ */
+final class SchemaSnapshot {
+    private final Map<String, TableMeta> tables;
+    private final String quoteString;
+    private final int databaseMajorVersion;
+    private final long version;
+    private final long timestamp;
+
+    private SchemaSnapshot(Map<String, TableMeta> tables, String quoteString, int databaseMajorVersion,
+                           long version, long timestamp) {
+        this.tables = tables;
+        this.quoteString = quoteString;
+        this.databaseMajorVersion = databaseMajorVersion;
+        this.version = version;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Reads metadata about every table's columns, primary and foreign keys.
+     * Reading this data is expensive, so it's done in the background by
+     * {@link SchemaCache}.
+     *
+     * @param config  api configuration
+     * @param link    connection used to read the metadata
+     * @param version snapshot version
+     * @return loaded snapshot
+     * @throws SQLException if metadata cannot be read
+     */
+    static SchemaSnapshot load(ApiConfig config, Connection link, long version) throws SQLException {
+        Map<String, TableMeta> tablesMap = new LinkedHashMap<>();
+        final String databaseName = link.getCatalog();
+        DatabaseMetaData md = link.getMetaData();
+        final String quoteString = md.getIdentifierQuoteString();
+        String schemaPattern = getCurrentSchema(config, link);
+
+        try (ResultSet tables = md.getTables(databaseName, schemaPattern,
+                "%", new String[]{"TABLE", "VIEW"})) {
+            while (tables.next()) {
+                final String jdbcTableName = tables.getString("TABLE_NAME");
+                final String table = getNativeCaseName(config, jdbcTableName);
+                if (!tablesMap.containsKey(table)) {
+                    tablesMap.put(table, new TableMeta(table));
+                }
+                try (ResultSet rs = md.getImportedKeys(null, schemaPattern, jdbcTableName)) {
+                    while (rs.next()) {
+                        final String pkTable = getNativeCaseName(config, rs.getString("PKTABLE_NAME"));
+                        final String pkColumn = getNativeCaseName(config, rs.getString("PKCOLUMN_NAME"));
+                        final String fkTable = getNativeCaseName(config, rs.getString("FKTABLE_NAME"));
+                        final String fkColumn = getNativeCaseName(config, rs.getString("FKCOLUMN_NAME"));
+                        tablesMap.get(table).addForeignKeys(pkTable, pkColumn, fkTable, fkColumn);
+                    }
+                }
+                try (ResultSet rs = md.getPrimaryKeys(null, schemaPattern, jdbcTableName)) {
+                    //rows are ordered by column name, composite keys are sorted by KEY_SEQ
+                    Map<Integer, String> keyColumns = new TreeMap<>();
+                    while (rs.next()) {
+                        final String column = rs.getString("COLUMN_NAME");
+                        keyColumns.put(rs.getInt("KEY_SEQ"), getNativeCaseName(config, column));
+                    }
+                    tablesMap.get(table).setPrimaryKeys(new ArrayList<>(keyColumns.values()));
+                }
+            }
+        }
+        //column types of all tables are read at once, in ordinal order
+        try (ResultSet rs = md.getColumns(databaseName, schemaPattern, "%", "%")) {
+            while (rs.next()) {
+                final TableMeta tableMeta = tablesMap.get(getNativeCaseName(config, rs.getString("TABLE_NAME")));
+                if (tableMeta != null) {
+                    final String column = getNativeCaseName(config, rs.getString("COLUMN_NAME"));
+                    tableMeta.addColumn(column, getColumnTypeName(config, rs.getString("TYPE_NAME")));
+                    if (rs.getInt("NULLABLE") == DatabaseMetaData.columnNullable) {
+                        tableMeta.addNullableColumn(column);
+                    }
+                }
+            }
+        }
+        final Map<String, TableMeta> snapshotTables = new LinkedHashMap<>();
+        for (Map.Entry<String, TableMeta> entry : tablesMap.entrySet()) {
+            snapshotTables.put(entry.getKey(), entry.getValue().toReadOnly());
+        }
+        return new SchemaSnapshot(Collections.unmodifiableMap(snapshotTables), quoteString,
+                getDatabaseMajorVersion(md), version, System.currentTimeMillis());
+    }
+
+    private static int getDatabaseMajorVersion(DatabaseMetaData md) {
+        try {
+            return md.getDatabaseMajorVersion();
+        } catch (SQLException e) {
+            return 0;
+        }
+    }
+
+    private static String getCurrentSchema(ApiConfig config, Connection link) throws SQLException {
+        return config.getDialect().getCurrentSchema(link);
+    }
+
+    private static String getNativeCaseName(ApiConfig config, String name) {
+        return config.getDialect().getNativeCaseName(name);
+    }
+
+    /**
+     * Normalizes type names read from DatabaseMetaData.getColumns() to match
+     * the ones reported by ResultSetMetaData (eg. Oracle's TIMESTAMP(6))
+     *
+     * @param typeName TYPE_NAME column value
+     * @return normalized type name
+     */
+    private static String getColumnTypeName(ApiConfig config, String typeName) {
+        if (typeName == null || typeName.isEmpty() || "NULL".equals(typeName)) {
+            //special case: sqlite view's count() columns
+            return "INT";
+        }
+        typeName = typeName.replaceAll("\\(\\d+(,\\s*\\d+)?\\)", "");
+        return config.getDialect().getColumnTypeName(typeName);
+    }
+
+    /**
+     * Returns this snapshot with the version of the previous one, if the
+     * metadata didn't change. Cached SQL keyed by the version stays reachable
+     * after refresh of unchanged schema.
+     *
+     * @param previous replaced snapshot
+     * @return this snapshot or its copy with the previous version
+     */
+    SchemaSnapshot keepVersionOf(SchemaSnapshot previous) {
+        if (Objects.equals(quoteString, previous.quoteString) && getSignature().equals(previous.getSignature())) {
+            return new SchemaSnapshot(tables, quoteString, databaseMajorVersion, previous.version, timestamp);
+        }
+        return this;
+    }
+
+    private String getSignature() {
+        final StringBuilder signature = new StringBuilder();
+        for (TableMeta tableMeta : tables.values()) {
+            signature.append(tableMeta.getSignature()).append('\n');
+        }
+        return signature.toString();
+    }
+
+    /**
+     * Returns copy of this snapshot, valid from now on. Used to keep serving
+     * stale metadata when a refresh fails.
+     *
+     * @return renewed snapshot with the same version
+     */
+    SchemaSnapshot renew() {
+        return new SchemaSnapshot(tables, quoteString, databaseMajorVersion, version, System.currentTimeMillis());
+    }
+
+    /**
+     * Read-only table metadata map. Use {@link TableMeta#TableMeta(TableMeta)}
+     * copies to keep request relations.
+     *
+     * @return table name - metadata map
+     */
+    Map<String, TableMeta> getTables() {
+        return tables;
+    }
+
+    String getQuoteString() {
+        return quoteString;
+    }
+
+    /**
+     * Major version of the database product, used to pick version dependent SQL
+     *
+     * @return major version or 0 if the driver doesn't report it
+     */
+    int getDatabaseMajorVersion() {
+        return databaseMajorVersion;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    boolean isExpired(long timeToLive) {
+        return System.currentTimeMillis() > timestamp + timeToLive;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ *  Copyright (c) 2017. I.Kolchagov, All rights reserved.
+ *  Contact: I.Kolchagov (kolchagov (at) gmail.com)
+ *
+ *  The contents of this file is licensed under the terms of LGPLv3 license.
+ *  You may read the the included file 'lgpl-3.0.txt'
+ *  or https://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the License.
+ *
+ *  The project uses 'fluentsql' internally, licensed under Apache Public License v2.0.
+ *  https://github.com/ivanceras/fluentsql/blob/master/LICENSE.txt
+ *
+ */
+
+package eu.hadeco.crudapi;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Built SQL text of read queries, keyed by the query shape (table, columns,
+ * filter operators, paging...) which doesn't depend on parameter values. Keys
+ * contain the schema snapshot version, so schema changes make old entries
+ * unreachable. The cache is bounded - the least recently used entry is evicted
+ * when full.
+ *
+ * @author ivankol
+ * @version $Id: $Id
+ */
+class SqlTemplateCache {
+    private static final int MAX_SIZE = 512;
+    private final Map<String, String> templates = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    /**
+     * <p>get.</p>
+     *
+     * @param shape query shape
+     * @return cached SQL or null
+     */
+    String get(String shape) {
+        synchronized (templates) {
+            return templates.get(shape);
+        }
+    }
+
+    /**
+     * <p>put.</p>
+     *
+     * @param shape query shape
+     * @param sql   built SQL
+     */
+    void put(String shape, String sql) {
+        synchronized (templates) {
+            templates.put(shape, sql);
+        }
+    }
+
+    /**
+     * Removes all cached SQL
+     */
+    void clear() {
+        synchronized (templates) {
+            templates.clear();
+        }
+    }
+}
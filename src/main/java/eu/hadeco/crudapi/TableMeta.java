@@ -17,8 +17,16 @@
 
 package eu.hadeco.crudapi;
 
+import com.google.gson.internal.LinkedTreeMap;
+
 import java.util.*;
 
+/**
+ * Table metadata. Key and column maps are filled once while loading the
+ * {@link SchemaSnapshot}, which holds {@link #toReadOnly()} copies of them;
+ * relations between tables are request state and live in request-scoped
+ * copies only.
+ */
 class TableMeta {
     private final String table;
     private final Map<String, TableMeta> referencedTables;
@@ -26,7 +34,13 @@ class TableMeta {
     private final Map<String, String> foreignToPrimaryKeys;
     private final Map<String, String> referencedTablePrimaryKeys;
     private final Map<String, String> primaryToForeignKeys;
-    private String primaryKey, referedFromKey, referedToKey;
+    //contains SQL column types with fully-qualified names in ordinal order eg: posts.id->INT ...
+    private final Map<String, String> columnTypes;
+    //fully-qualified columns which may contain NULL
+    private final Set<String> nullableColumns;
+    //fully-qualified primary key columns in key sequence order
+    private final List<String> primaryKeys;
+    private String referedFromKey, referedToKey;
 
     /**
      * <p>Constructor for TableMeta.</p>
@@ -40,6 +54,69 @@ class TableMeta {
         foreignToPrimaryKeys = new HashMap<>();
         primaryToForeignKeys = new HashMap<>();
         referencedTables = new HashMap<>();
+        columnTypes = new LinkedTreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        nullableColumns = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        primaryKeys = new ArrayList<>();
+    }
+
+    /**
+     * Creates request-scoped copy, which shares the read-only schema metadata
+     * of the cached table, but holds its own relations
+     *
+     * @param schemaTable cached table metadata
+     */
+    TableMeta(TableMeta schemaTable) {
+        this.table = schemaTable.table;
+        foreignKeys = schemaTable.foreignKeys;
+        referencedTablePrimaryKeys = schemaTable.referencedTablePrimaryKeys;
+        foreignToPrimaryKeys = schemaTable.foreignToPrimaryKeys;
+        primaryToForeignKeys = schemaTable.primaryToForeignKeys;
+        columnTypes = schemaTable.columnTypes;
+        nullableColumns = schemaTable.nullableColumns;
+        primaryKeys = schemaTable.primaryKeys;
+        referencedTables = new HashMap<>();
+    }
+
+    private TableMeta(String table, Set<String> foreignKeys, Map<String, String> foreignToPrimaryKeys,
+                      Map<String, String> referencedTablePrimaryKeys, Map<String, String> primaryToForeignKeys,
+                      Map<String, String> columnTypes, Set<String> nullableColumns, List<String> primaryKeys) {
+        this.table = table;
+        this.foreignKeys = foreignKeys;
+        this.foreignToPrimaryKeys = foreignToPrimaryKeys;
+        this.referencedTablePrimaryKeys = referencedTablePrimaryKeys;
+        this.primaryToForeignKeys = primaryToForeignKeys;
+        this.columnTypes = columnTypes;
+        this.nullableColumns = nullableColumns;
+        this.primaryKeys = primaryKeys;
+        this.referencedTables = Collections.emptyMap();
+    }
+
+    /**
+     * Returns copy for the schema snapshot, which can't be modified and holds
+     * no relations. Modifications throw UnsupportedOperationException.
+     *
+     * @return read-only table metadata
+     */
+    TableMeta toReadOnly() {
+        return new TableMeta(table, Collections.unmodifiableSet(foreignKeys),
+                Collections.unmodifiableMap(foreignToPrimaryKeys),
+                Collections.unmodifiableMap(referencedTablePrimaryKeys),
+                Collections.unmodifiableMap(primaryToForeignKeys),
+                Collections.unmodifiableMap(columnTypes),
+                Collections.unmodifiableSet(nullableColumns),
+                Collections.unmodifiableList(primaryKeys));
+    }
+
+    /**
+     * Describes the columns, their types and nullability, primary and foreign
+     * keys, used to detect schema changes between snapshots
+     *
+     * @return metadata description
+     */
+    String getSignature() {
+        return table + columnTypes + nullableColumns + primaryKeys + new TreeSet<>(foreignKeys)
+                + new TreeMap<>(foreignToPrimaryKeys) + new TreeMap<>(referencedTablePrimaryKeys)
+                + new TreeMap<>(primaryToForeignKeys);
     }
 
     /**
@@ -52,12 +129,12 @@ class TableMeta {
     }
 
     /**
-     * <p>Getter for the field <code>primaryKey</code>.</p>
+     * Returns the first column of the primary key
      *
-     * @return a {@link java.lang.String} object.
+     * @return fully-qualified column name or null if table has no primary key
      */
     public String getPrimaryKey() {
-        return primaryKey;
+        return primaryKeys.isEmpty() ? null : primaryKeys.get(0);
     }
 
     /**
@@ -66,7 +143,75 @@ class TableMeta {
      * @param primaryKey a {@link java.lang.String} object.
      */
     public void setPrimaryKey(String primaryKey) {
-        this.primaryKey = String.format("%s.%s", table, primaryKey);
+        setPrimaryKeys(Collections.singletonList(primaryKey));
+    }
+
+    /**
+     * <p>Getter for the field <code>primaryKeys</code>.</p>
+     *
+     * @return fully-qualified primary key columns in key sequence order
+     */
+    public List<String> getPrimaryKeys() {
+        return primaryKeys;
+    }
+
+    /**
+     * Sets (composite) primary key columns
+     *
+     * @param primaryKeys column names in key sequence order
+     */
+    public void setPrimaryKeys(List<String> primaryKeys) {
+        this.primaryKeys.clear();
+        for (String primaryKey : primaryKeys) {
+            this.primaryKeys.add(String.format("%s.%s", table, primaryKey));
+        }
+    }
+
+    /**
+     * <p>hasCompositePrimaryKey.</p>
+     *
+     * @return true if primary key consists of more than one column
+     */
+    public boolean hasCompositePrimaryKey() {
+        return primaryKeys.size() > 1;
+    }
+
+    /**
+     * <p>addColumn.</p>
+     *
+     * @param column a {@link java.lang.String} object.
+     * @param type   SQL type as read from JDBC metadata
+     */
+    public void addColumn(String column, String type) {
+        columnTypes.put(String.format("%s.%s", table, column), type);
+    }
+
+    /**
+     * Marks the column as nullable
+     *
+     * @param column column name
+     */
+    void addNullableColumn(String column) {
+        nullableColumns.add(String.format("%s.%s", table, column));
+    }
+
+    /**
+     * Returns true if the column may contain NULL, as declared in the schema
+     *
+     * @param column fully-qualified column name
+     * @return true for nullable columns
+     */
+    boolean isNullable(String column) {
+        return nullableColumns.contains(column);
+    }
+
+    /**
+     * Column types with fully-qualified names, in ordinal order
+     *
+     * @return a {@link java.util.Map} object.
+     */
+    public Map<String, String> getColumnTypes() {
+        return columnTypes;
     }
 
     /**
@@ -100,14 +245,6 @@ class TableMeta {
         return foreignKeys;
     }
 
-    /**
-     * <p>clearReferencedTables.</p>
-     */
-    public void clearReferencedTables() {
-        referencedTables.clear();
-        referedFromKey = null;
-    }
-
     /**
      * <p>addReferencedTable.</p>
      *
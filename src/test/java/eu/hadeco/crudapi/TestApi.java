@@ -30,7 +30,9 @@ import org.springframework.web.util.UriComponentsBuilder;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.sql.Connection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
@@ -38,12 +40,26 @@ import static org.junit.Assert.fail;
 public class TestApi {
     private static final JsonParser parser = new JsonParser();
     private final TestBase test;
+    private final ApiConfig apiConfig;
+    private final Map<String, String> headers = new LinkedHashMap<>();
     private String baseUrl;
     private String method;
     private String data;
+    private String response;
 
     TestApi(TestBase test) {
+        this(test, null);
+    }
+
+    /**
+     * Runs the requests with the given configuration instead of the shared one
+     *
+     * @param test      test class
+     * @param apiConfig configuration with overridden options
+     */
+    TestApi(TestBase test, ApiConfig apiConfig) {
         this.test = test;
+        this.apiConfig = apiConfig;
     }
 
 
@@ -61,9 +77,10 @@ public class TestApi {
             final MockHttpServletResponse resp = new MockHttpServletResponse();
             //todo check why some tests are failing without it
             try (Connection link = test.connect()) {
-                final ApiConfig apiConfig = TestBase.getApiConfig();
+                final ApiConfig apiConfig = this.apiConfig != null ? this.apiConfig : TestBase.getApiConfig();
                 RequestHandler.handle(req, resp, apiConfig);
                 String actual = resp.getContentAsString();
+                response = actual;
                 assertEquals("expected ok response, got: " + actual, isOkResponse, resp.getStatus() < 400);
                 if (expected != null) {
                     if (isOkResponse) {
@@ -85,6 +102,7 @@ public class TestApi {
             fail(e.getMessage());
         } finally {
             this.data = null;
+            this.headers.clear();
         }
     }
 
@@ -92,10 +110,30 @@ public class TestApi {
         expect(true, null);
     }
 
+    /**
+     * @return response body of the last expected request
+     */
+    public String getResponse() {
+        return response;
+    }
+
+    /**
+     * Adds a header to the next request
+     *
+     * @param name  header name
+     * @param value header value
+     */
+    public void header(String name, String value) {
+        headers.put(name, value);
+    }
+
     private MockHttpServletRequest getMockHttpServletRequest() throws UnsupportedEncodingException {
         final MockHttpServletRequest req = new MockHttpServletRequest();
         req.setServerName("localhost");
         req.setMethod(method);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            req.addHeader(header.getKey(), header.getValue());
+        }
         final UriComponents build = UriComponentsBuilder.fromUriString(this.baseUrl).build();
         req.setPathInfo(build.getPath());
         req.setQueryString(build.getQuery());
@@ -52,7 +52,9 @@ public abstract class TestBase {
 
     @AfterClass
     public static void tearDown() {
-        ApiConfig.clearCachedTableMeta();
+        if (apiConfig != null) {
+            apiConfig.invalidateSchemaCache();
+        }
         apiConfig = null; //prepare for next Test from the suite
     }
 
@@ -160,4 +162,4 @@ public abstract class TestBase {
             throw ex;
         }
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
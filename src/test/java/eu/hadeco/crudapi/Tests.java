@@ -19,6 +19,8 @@ package eu.hadeco.crudapi;
 
 
 import android.util.Base64;
+import com.google.gson.JsonParser;
+import com.zaxxer.hikari.HikariDataSource;
 import org.junit.Assert;
 import org.junit.Assume;
 import org.junit.Before;
@@ -29,6 +31,8 @@ import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
 
 @RunWith(OrderedTestRunner.class)
 public abstract class Tests extends TestBase {
@@ -267,6 +271,258 @@ public abstract class Tests extends TestBase {
         test.expect("{\"posts\":[{\"id\":1,\"post_tags\":[{\"id\":1,\"post_id\":1,\"tag_id\":1,\"tags\":[{\"id\":1,\"name\":\"funny\"}]},{\"id\":2,\"post_id\":1,\"tag_id\":2,\"tags\":[{\"id\":2,\"name\":\"important\"}]}],\"comments\":[{\"id\":1,\"post_id\":1},{\"id\":2,\"post_id\":1}],\"user_id\":1,\"category_id\":1,\"categories\":[{\"id\":1,\"name\":\"announcement\",\"icon\":null}],\"content\":\"blog started\"}]}");
     }
 
+    @Test
+    public void testListExampleFromReadmeWithTransformWithJoin() {
+        TestApi test = new TestApi(this);
+        test.get("/posts?include=categories,tags,comments&filter=id,eq,1&transform=1&join=1");
+        test.expect("{\"posts\":[{\"id\":1,\"post_tags\":[{\"id\":1,\"post_id\":1,\"tag_id\":1,\"tags\":[{\"id\":1,\"name\":\"funny\"}]},{\"id\":2,\"post_id\":1,\"tag_id\":2,\"tags\":[{\"id\":2,\"name\":\"important\"}]}],\"comments\":[{\"id\":1,\"post_id\":1,\"message\":\"great\"},{\"id\":2,\"post_id\":1,\"message\":\"fantastic\"}],\"user_id\":1,\"category_id\":1,\"categories\":[{\"id\":1,\"name\":\"announcement\",\"icon\":null}],\"content\":\"blog started\"}]}");
+    }
+
+    @Test
+    public void testListExampleFromReadmeWithTransformWithExcludeWithJoin() {
+        TestApi test = new TestApi(this);
+        test.get("/posts?include=categories,tags,comments&exclude=comments.message&filter=id,eq,1&transform=1&join=1");
+        test.expect("{\"posts\":[{\"id\":1,\"post_tags\":[{\"id\":1,\"post_id\":1,\"tag_id\":1,\"tags\":[{\"id\":1,\"name\":\"funny\"}]},{\"id\":2,\"post_id\":1,\"tag_id\":2,\"tags\":[{\"id\":2,\"name\":\"important\"}]}],\"comments\":[{\"id\":1,\"post_id\":1},{\"id\":2,\"post_id\":1}],\"user_id\":1,\"category_id\":1,\"categories\":[{\"id\":1,\"name\":\"announcement\",\"icon\":null}],\"content\":\"blog started\"}]}");
+    }
+
+    @Test
+    public void testListExampleFromReadmeWithSplitInLists() {
+        ApiConfig config = new ApiConfig(USER, PASS, DB_NAME, SERVER_NAME, SERVER_CLASS) {
+            @Override
+            public int getMaxInListSize() {
+                return 1;
+            }
+        };
+        try {
+            TestApi test = new TestApi(this, config);
+            test.get("/posts?include=categories,tags,comments&filter=id,eq,1");
+            test.expect("{\"posts\":{\"columns\":[\"id\",\"user_id\",\"category_id\",\"content\"],\"records\":[[1,1,1,\"blog started\"]]},\"post_tags\":{\"relations\":{\"post_id\":\"posts.id\"},\"columns\":[\"id\",\"post_id\",\"tag_id\"],\"records\":[[1,1,1],[2,1,2]]},\"categories\":{\"relations\":{\"id\":\"posts.category_id\"},\"columns\":[\"id\",\"name\",\"icon\"],\"records\":[[1,\"announcement\",null]]},\"tags\":{\"relations\":{\"id\":\"post_tags.tag_id\"},\"columns\":[\"id\",\"name\"],\"records\":[[1,\"funny\"],[2,\"important\"]]},\"comments\":{\"relations\":{\"post_id\":\"posts.id\"},\"columns\":[\"id\",\"post_id\",\"message\"],\"records\":[[1,1,\"great\"],[2,1,\"fantastic\"]]}}");
+        } finally {
+            config.close();
+        }
+    }
+
+    @Test
+    public void testListIncludeWithPaddedInList() {
+        ApiConfig config = new ApiConfig(USER, PASS, DB_NAME, SERVER_NAME, SERVER_CLASS) {
+            @Override
+            public int getMaxInListSize() {
+                return 4;
+            }
+        };
+        try {
+            // 3 keys are sent as IN list of 4 values
+            TestApi test = new TestApi(this, config);
+            test.get("/posts?include=comments&exclude=content&filter=id,le,5");
+            test.expect("{\"posts\":{\"columns\":[\"id\",\"user_id\",\"category_id\"],\"records\":[[1,1,1],[2,1,2],[5,1,1]]},\"comments\":{\"relations\":{\"post_id\":\"posts.id\"},\"columns\":[\"id\",\"post_id\",\"message\"],\"records\":[[1,1,\"great\"],[2,1,\"fantastic\"],[3,2,\"thank you\"],[4,2,\"awesome\"]]}}");
+        } finally {
+            config.close();
+        }
+    }
+
+    @Test
+    public void testListIncludeWithOrderedSplitInLists() {
+        ApiConfig config = new ApiConfig(USER, PASS, DB_NAME, SERVER_NAME, SERVER_CLASS) {
+            @Override
+            public int getMaxInListSize() {
+                return 1;
+            }
+        };
+        try {
+            // comments of 3 posts are read in 3 chunks and merged by the requested order
+            TestApi test = new TestApi(this, config);
+            test.get("/posts?include=comments&exclude=content&filter=id,le,5&order=comments.message");
+            test.expect("{\"posts\":{\"columns\":[\"id\",\"user_id\",\"category_id\"],\"records\":[[1,1,1],[2,1,2],[5,1,1]]},\"comments\":{\"relations\":{\"post_id\":\"posts.id\"},\"columns\":[\"id\",\"post_id\",\"message\"],\"records\":[[4,2,\"awesome\"],[2,1,\"fantastic\"],[1,1,\"great\"],[3,2,\"thank you\"]]}}");
+            test = new TestApi(this, config);
+            test.get("/posts?include=comments&exclude=content,comments.message&filter=id,le,5&order=comments.message,desc");
+            test.expect("{\"posts\":{\"columns\":[\"id\",\"user_id\",\"category_id\"],\"records\":[[1,1,1],[2,1,2],[5,1,1]]},\"comments\":{\"relations\":{\"post_id\":\"posts.id\"},\"columns\":[\"id\",\"post_id\"],\"records\":[[3,2],[1,1],[2,1],[4,2]]}}");
+        } finally {
+            config.close();
+        }
+    }
+
+    @Test
+    public void testListExampleFromReadmeWithParallelIncludes() {
+        ApiConfig config = new ApiConfig(USER, PASS, DB_NAME, SERVER_NAME, SERVER_CLASS) {
+            @Override
+            public int getMaxParallelIncludes() {
+                return 3;
+            }
+        };
+        try {
+            TestApi test = new TestApi(this, config);
+            test.get("/posts?include=categories,tags,comments&filter=id,eq,1");
+            test.expect("{\"posts\":{\"columns\":[\"id\",\"user_id\",\"category_id\",\"content\"],\"records\":[[1,1,1,\"blog started\"]]},\"post_tags\":{\"relations\":{\"post_id\":\"posts.id\"},\"columns\":[\"id\",\"post_id\",\"tag_id\"],\"records\":[[1,1,1],[2,1,2]]},\"categories\":{\"relations\":{\"id\":\"posts.category_id\"},\"columns\":[\"id\",\"name\",\"icon\"],\"records\":[[1,\"announcement\",null]]},\"tags\":{\"relations\":{\"id\":\"post_tags.tag_id\"},\"columns\":[\"id\",\"name\"],\"records\":[[1,\"funny\"],[2,\"important\"]]},\"comments\":{\"relations\":{\"post_id\":\"posts.id\"},\"columns\":[\"id\",\"post_id\",\"message\"],\"records\":[[1,1,\"great\"],[2,1,\"fantastic\"]]}}");
+        } finally {
+            config.close();
+        }
+    }
+
+    @Test
+    public void testListWithSeek() {
+        TestApi test = new TestApi(this);
+        test.get("/comments?order=message&seek=3");
+        test.expect("{\"comments\":{\"columns\":[\"id\",\"post_id\",\"message\"],\"records\":[[4,2,\"awesome\"],[2,1,\"fantastic\"],[1,1,\"great\"]],\"next\":\"${json-unit.ignore}\"}}");
+        String next = new JsonParser().parse(test.getResponse()).getAsJsonObject().getAsJsonObject("comments").get("next").getAsString();
+        test.get("/comments?order=message&seek=3," + next);
+        test.expect("{\"comments\":{\"columns\":[\"id\",\"post_id\",\"message\"],\"records\":[[3,2,\"thank you\"]],\"next\":null}}");
+    }
+
+    @Test
+    public void testListWithSeekWithTransform() {
+        TestApi test = new TestApi(this);
+        test.get("/comments?order=post_id,desc&seek=2&transform=1");
+        test.expect("{\"comments\":[{\"id\":3,\"post_id\":2,\"message\":\"thank you\"},{\"id\":4,\"post_id\":2,\"message\":\"awesome\"}],\"next\":\"${json-unit.ignore}\"}");
+        String next = new JsonParser().parse(test.getResponse()).getAsJsonObject().get("next").getAsString();
+        test.get("/comments?order=post_id,desc&seek=2," + next + "&transform=1");
+        test.expect("{\"comments\":[{\"id\":1,\"post_id\":1,\"message\":\"great\"},{\"id\":2,\"post_id\":1,\"message\":\"fantastic\"}],\"next\":\"${json-unit.ignore}\"}");
+    }
+
+    @Test
+    public void testListWithSeekInvalidToken() {
+        TestApi test = new TestApi(this);
+        test.get("/comments?order=message&seek=3,WyIxMCJd");
+        test.expect(false, "Invalid seek token: WyIxMCJd");
+    }
+
+    @Test
+    public void testListWithSeekNullOrderColumn() {
+        TestApi test = new TestApi(this);
+        test.get("/categories?order=icon&seek=1");
+        test.expect(false, "Seek order column categories.icon is nullable");
+    }
+
+    @Test
+    public void testListWithFilterSameQueryShape() {
+        TestApi test = new TestApi(this);
+        test.get("/categories?filter=id,eq,1&transform=1");
+        test.expect("{\"categories\":[{\"id\":1,\"name\":\"announcement\",\"icon\":null}]}");
+        test.get("/categories?filter=id,eq,2&transform=1");
+        test.expect("{\"categories\":[{\"id\":2,\"name\":\"article\",\"icon\":null}]}");
+        test.get("/categories?page=2,1&order=id");
+        test.expect("{\"categories\":{\"columns\":[\"id\",\"name\",\"icon\"],\"records\":[[2,\"article\",null]],\"results\":2}}");
+        test.get("/categories?page=1,1&order=id");
+        test.expect("{\"categories\":{\"columns\":[\"id\",\"name\",\"icon\"],\"records\":[[1,\"announcement\",null]],\"results\":2}}");
+    }
+
+    @Test
+    public void testListWithPaginateWithoutCount() {
+        ApiConfig config = new ApiConfig(USER, PASS, DB_NAME, SERVER_NAME, SERVER_CLASS) {
+            @Override
+            public ResultCount getResultCountMode(String database, String table) {
+                return ResultCount.NONE;
+            }
+        };
+        try {
+            TestApi test = new TestApi(this, config);
+            test.get("/categories?page=1,1&order=id");
+            test.expect("{\"categories\":{\"columns\":[\"id\",\"name\",\"icon\"],\"records\":[[1,\"announcement\",null]]}}");
+        } finally {
+            config.close();
+        }
+    }
+
+    @Test
+    public void testListWithPaginateEstimatedCountWithFilter() {
+        ApiConfig config = new ApiConfig(USER, PASS, DB_NAME, SERVER_NAME, SERVER_CLASS) {
+            @Override
+            public ResultCount getResultCountMode(String database, String table) {
+                return ResultCount.ESTIMATED;
+            }
+        };
+        try {
+            // filtered tables have no estimate, their count is cached instead
+            TestApi test = new TestApi(this, config);
+            test.get("/categories?page=1,1&order=id&filter=id,gt,0");
+            test.expect("{\"categories\":{\"columns\":[\"id\",\"name\",\"icon\"],\"records\":[[1,\"announcement\",null]],\"results\":2}}");
+        } finally {
+            config.close();
+        }
+    }
+
+    @Test
+    public void testListWithFetchSize() {
+        ApiConfig config = new ApiConfig(USER, PASS, DB_NAME, SERVER_NAME, SERVER_CLASS) {
+            @Override
+            public int getFetchSize(String database, String table) {
+                return 1;
+            }
+        };
+        try {
+            TestApi test = new TestApi(this, config);
+            test.get("/comments?order=id&transform=1");
+            test.expect("{\"comments\":[{\"id\":1,\"post_id\":1,\"message\":\"great\"},{\"id\":2,\"post_id\":1,\"message\":\"fantastic\"},{\"id\":3,\"post_id\":2,\"message\":\"thank you\"},{\"id\":4,\"post_id\":2,\"message\":\"awesome\"}]}");
+        } finally {
+            config.close();
+        }
+    }
+
+    @Test
+    public void testListWithQueryTimeoutHeader() {
+        TestApi test = new TestApi(this);
+        test.header("X-Query-Timeout", "5");
+        test.get("/categories?filter=id,eq,1&transform=1");
+        test.expect("{\"categories\":[{\"id\":1,\"name\":\"announcement\",\"icon\":null}]}");
+        // invalid values are ignored
+        test.header("X-Query-Timeout", "soon");
+        test.get("/categories?filter=id,eq,1&transform=1");
+        test.expect("{\"categories\":[{\"id\":1,\"name\":\"announcement\",\"icon\":null}]}");
+    }
+
+    @Test
+    public void testListWithConcurrencyLimit() {
+        ApiConfig config = new ApiConfig(USER, PASS, DB_NAME, SERVER_NAME, SERVER_CLASS) {
+            @Override
+            public int getConcurrencyLimit(String table, RequestHandler.Actions action) {
+                return 1;
+            }
+        };
+        try {
+            // admitted one at a time until the first request has loaded the schema
+            TestApi test = new TestApi(this, config);
+            test.get("/postcategories");
+            test.expect(false, "Not found (entity)");
+            test.get("/categories?filter=id,eq,1&transform=1");
+            test.expect("{\"categories\":[{\"id\":1,\"name\":\"announcement\",\"icon\":null}]}");
+            test.get("/postcategories");
+            test.expect(false, "Not found (entity)");
+        } finally {
+            config.close();
+        }
+    }
+
+    @Test
+    public void testListFromReplica() {
+        ApiConfig config = new ApiConfig(USER, PASS, DB_NAME, SERVER_NAME, SERVER_CLASS);
+        try {
+            // the primary database serves as its own replica
+            config.addReplica(getReplicaProperties(getApiConfig()));
+            TestApi test = new TestApi(this, config);
+            test.get("/categories?filter=id,eq,1&transform=1");
+            test.expect("{\"categories\":[{\"id\":1,\"name\":\"announcement\",\"icon\":null}]}");
+            test.get("/categories/1");
+            test.expect("{\"id\":1,\"name\":\"announcement\",\"icon\":null}");
+        } finally {
+            config.close();
+        }
+    }
+
+    private static Properties getReplicaProperties(ApiConfig config) {
+        final HikariDataSource dataSource = config.getDataSource();
+        Properties properties = new Properties();
+        if (dataSource.getJdbcUrl() != null) {
+            properties.put("jdbcUrl", dataSource.getJdbcUrl());
+        }
+        if (dataSource.getDataSourceClassName() != null) {
+            properties.put("dataSourceClassName", dataSource.getDataSourceClassName());
+        }
+        final Properties dataSourceProperties = dataSource.getDataSourceProperties();
+        for (String name : dataSourceProperties.stringPropertyNames()) {
+            properties.put("dataSource." + name, dataSourceProperties.getProperty(name));
+        }
+        return properties;
+    }
+
     @Test
     public void testEditCategoryWithBinaryContent() {
         String encoded = Base64.encodeToString("\0abc\0\n\r\b\0".getBytes(), Base64.DEFAULT).trim();
@@ -856,4 +1112,84 @@ public abstract class Tests extends TestBase {
             test.expect("{\"key\":\"key\",\"value\":\"testValue\"}");
         }
     }
+
+    @Test
+    public void testUpdateMultipleTagsWithoutBatch() {
+        ApiConfig config = new ApiConfig(USER, PASS, DB_NAME, SERVER_NAME, SERVER_CLASS) {
+            @Override
+            public boolean isBatchUpdateEnabled() {
+                return false;
+            }
+        };
+        try {
+            TestApi test = new TestApi(this, config);
+            test.post("/tags", "[{\"name\":\"one\"},{\"name\":\"two\"}]");
+            test.expect("[5,6]");
+            test.put("/tags/5,6", "[{\"name\":\"uno\"},{\"name\":\"dos\"}]");
+            test.expect("[1,1]");
+            test.delete("/tags/5,6");
+            test.expect("[1,1]");
+        } finally {
+            config.close();
+        }
+    }
+
+    @Test
+    public void testAddMultipleTagsWithMultiRowInsert() {
+        ApiConfig config = new ApiConfig(USER, PASS, DB_NAME, SERVER_NAME, SERVER_CLASS) {
+            @Override
+            public int getMultiRowInsertSize() {
+                return 2;
+            }
+        };
+        try {
+            // 3 rows are sent as 2 statements
+            TestApi test = new TestApi(this, config);
+            test.post("/tags", "[{\"name\":\"one\"},{\"name\":\"two\"},{\"name\":\"three\"}]");
+            test.expect("[7,8,9]");
+            test.get("/tags?filter=id,gt,2&order=id&transform=1");
+            test.expect("{\"tags\":[{\"id\":7,\"name\":\"one\"},{\"id\":8,\"name\":\"two\"},{\"id\":9,\"name\":\"three\"}]}");
+            test.delete("/tags/7,8,9");
+            test.expect("[1,1,1]");
+        } finally {
+            config.close();
+        }
+    }
+
+    @Test
+    public void testListWithPaginateCachedCount() throws SQLException {
+        ApiConfig config = new ApiConfig(USER, PASS, DB_NAME, SERVER_NAME, SERVER_CLASS) {
+            @Override
+            public ResultCount getResultCountMode(String database, String table) {
+                return ResultCount.CACHED;
+            }
+        };
+        try {
+            TestApi test = new TestApi(this, config);
+            test.get("/tags?page=1,1&order=id");
+            test.expect("{\"tags\":{\"columns\":[\"id\",\"name\"],\"records\":[[1,\"funny\"]],\"results\":2}}");
+            // a row inserted around the API is not counted while the count is cached
+            executeUpdate("INSERT INTO tags (name) VALUES ('counted')");
+            try {
+                test.get("/tags?page=1,1&order=id");
+                test.expect("{\"tags\":{\"columns\":[\"id\",\"name\"],\"records\":[[1,\"funny\"]],\"results\":2}}");
+                // writes through the API invalidate the cached count
+                test.put("/tags/1", "{\"name\":\"funny\"}");
+                test.expect("1");
+                test.get("/tags?page=1,1&order=id");
+                test.expect("{\"tags\":{\"columns\":[\"id\",\"name\"],\"records\":[[1,\"funny\"]],\"results\":3}}");
+            } finally {
+                executeUpdate("DELETE FROM tags WHERE name = 'counted'");
+            }
+        } finally {
+            config.close();
+        }
+    }
+
+    private void executeUpdate(String sql) throws SQLException {
+        try (Connection link = getApiConfig().getConnection();
+             Statement statement = link.createStatement()) {
+            statement.executeUpdate(sql);
+        }
+    }
 }